@@ -1,6 +1,7 @@
 package com.zoma1101.music_player;
 
 import com.mojang.logging.LogUtils;
+import com.zoma1101.music_player.sound.ActiveDefinitionTable;
 import com.zoma1101.music_player.sound.MusicDefinition;
 import com.zoma1101.music_player.util.MusicConditionEvaluator;
 import net.minecraft.ResourceLocationException;
@@ -21,7 +22,6 @@ import com.zoma1101.music_player.sound.FadingSoundInstance;
 import com.zoma1101.music_player.config.MusicPlayerClientConfig;
 
 import javax.annotation.Nullable;
-import java.util.List;
 import java.util.Objects;
 
 @Mod.EventBusSubscriber(modid = Music_Player.MOD_ID, bus = Mod.EventBusSubscriber.Bus.FORGE, value = Dist.CLIENT)
@@ -211,10 +211,16 @@ public class ClientMusicManager {
             return;
         }
 
+        // サウンドパックの読み込み中は定義の一覧が不完全なので、今の曲をそのまま流しておく
+        if (Music_Player.soundPackManager.isReloading()) {
+            LOGGER.trace("Sound packs are being reloaded, skipping music update check.");
+            return;
+        }
+
         MusicConditionEvaluator.CurrentContext context = MusicConditionEvaluator.getCurrentContext(player, mc.level,
                 mc.screen);
-        List<MusicDefinition> definitions = Music_Player.soundPackManager.getActiveMusicDefinitionsSorted();
-        MusicDefinition bestMatch = findBestMatch(definitions, context);
+        ActiveDefinitionTable definitions = Music_Player.soundPackManager.getActiveDefinitionTable();
+        MusicDefinition bestMatch = MusicConditionEvaluator.findFirstMatch(definitions, context);
 
         String targetSoundEventKey = null;
         String reason;
@@ -227,13 +233,20 @@ public class ClientMusicManager {
             reason = "No matching MOD music definition.";
         }
 
-        if (!Objects.equals(targetSoundEventKey, currentMusicSoundEventKey)) {
+        if (!Objects.equals(targetSoundEventKey, currentMusicSoundEventKey)
+                && isPlayingSameAudio(targetSoundEventKey)) {
+            // 別の定義に切り替わったが同じ音声なので、再生し直さずにそのまま流し続ける
+            LOGGER.info("Music target changed from [{}] to [{}] with identical audio. Continuing playback. Reason: [{}].",
+                    currentMusicSoundEventKey, targetSoundEventKey, reason);
+            currentMusicSoundEventKey = targetSoundEventKey;
+        } else if (!Objects.equals(targetSoundEventKey, currentMusicSoundEventKey)) {
             LOGGER.info("Music change detected. Current Target Key: [{}], New Target Key: [{}]. Reason: [{}].",
                     currentMusicSoundEventKey, targetSoundEventKey, reason);
 
             stopMusic(true);
             if (targetSoundEventKey != null) {
                 playMusicByKey(targetSoundEventKey);
+                Music_Player.soundPackManager.onMusicTransition(currentMusicSoundEventKey, targetSoundEventKey);
             }
             currentMusicSoundEventKey = targetSoundEventKey;
 
@@ -253,6 +266,12 @@ public class ClientMusicManager {
         }
     }
 
+    private static boolean isPlayingSameAudio(@Nullable String targetSoundEventKey) {
+        return currentMusicInstance != null
+                && Minecraft.getInstance().getSoundManager().isActive(currentMusicInstance)
+                && Music_Player.soundPackManager.isSameAudio(currentMusicSoundEventKey, targetSoundEventKey);
+    }
+
     private static void playMusicByKey(String soundEventKey) {
         if (isStopping) {
             LOGGER.debug("Skipping playMusicByKey for key [{}] because isStopping is true.", soundEventKey);
@@ -280,9 +299,9 @@ public class ClientMusicManager {
 
             MusicDefinition def = Music_Player.soundPackManager.getMusicDefinitionByEventKey(soundEventKey);
             if (def != null) {
-                if (def.getFadeInTicks() != null)
+                if (def.hasFadeInTicks())
                     fadeInTicks = def.getFadeInTicks();
-                if (def.getFadeOutTicks() != null)
+                if (def.hasFadeOutTicks())
                     fadeOutTicks = def.getFadeOutTicks();
             }
 
@@ -319,19 +338,4 @@ public class ClientMusicManager {
             isStopping = true;
         }
     }
-
-    @Nullable
-    private static MusicDefinition findBestMatch(List<MusicDefinition> definitions,
-            MusicConditionEvaluator.CurrentContext context) {
-        for (MusicDefinition definition : definitions) {
-            if (definition.isValid()) {
-                if (MusicConditionEvaluator.doesDefinitionMatch(definition, context)) {
-                    return definition;
-                }
-            } else {
-                LOGGER.warn("Skipping invalid music definition during match finding: {}", definition);
-            }
-        }
-        return null;
-    }
 }
\ No newline at end of file
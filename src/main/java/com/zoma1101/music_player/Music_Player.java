@@ -23,6 +23,8 @@ import net.minecraftforge.fml.config.ModConfig;
 import org.slf4j.Logger;
 import com.zoma1101.music_player.config.MusicPlayerClientConfig;
 
+import javax.annotation.Nullable;
+
 @Mod(Music_Player.MOD_ID)
 public class Music_Player {
     public static final String MOD_ID = "music_player";
@@ -81,7 +83,11 @@ public class Music_Player {
                         modSoundResourcePackInstance.packId(),
                         Component.literal("Music Player Dynamic Sounds"),
                         true,
-                        (packId) -> modSoundResourcePackInstance,
+                        (packId) -> {
+                            // パックが開かれる（＝リロードが始まる）時点の状態でリソースを確定させる
+                            modSoundResourcePackInstance.refreshSnapshot();
+                            return modSoundResourcePackInstance;
+                        },
                         packInfo,
                         PackType.CLIENT_RESOURCES,
                         Pack.Position.TOP,
@@ -92,6 +98,14 @@ public class Music_Player {
         }
     }
 
+    /**
+     * 動的サウンドパックのインスタンス。リソースリロードの前 (MOD 初期化中) は null です。
+     */
+    @Nullable
+    public static ModSoundResourcePack getModSoundResourcePack() {
+        return modSoundResourcePackInstance;
+    }
+
     // Forgeイベントバス用のリスナー
     @SubscribeEvent
     public void onGameShuttingDown(final GameShuttingDownEvent event) {
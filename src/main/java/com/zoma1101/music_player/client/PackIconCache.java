@@ -0,0 +1,148 @@
+package com.zoma1101.music_player.client;
+
+import com.google.common.hash.Hashing;
+import com.mojang.blaze3d.platform.NativeImage;
+import com.mojang.logging.LogUtils;
+import com.zoma1101.music_player.Music_Player;
+import com.zoma1101.music_player.sound.PackResourceHandle;
+import com.zoma1101.music_player.sound.SoundPackInfo;
+import net.minecraft.Util;
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.renderer.texture.DynamicTexture;
+import net.minecraft.resources.ResourceLocation;
+import org.slf4j.Logger;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * サウンドパック選択画面用のアイコンのサムネイルキャッシュ。
+ * pack.png は一度だけ {@link #THUMBNAIL_SIZE} 四方に縮小し、内容のハッシュをキーにしてディスクへ保存します。
+ * テクスチャは描画された (画面に見えている) 行の分だけ非同期に読み込み、{@link #close()} で全て解放します。
+ */
+public class PackIconCache implements AutoCloseable {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    public static final int THUMBNAIL_SIZE = 64;
+    private static final Path DISK_CACHE_DIR = Paths.get("cache", Music_Player.MOD_ID, "icons");
+
+    private final Minecraft minecraft;
+    // パックID -> 読み込み状態。読み込み中のものは texture が null (クライアントスレッドからのみ更新する)
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private volatile boolean closed = false;
+
+    public PackIconCache(Minecraft minecraft) {
+        this.minecraft = minecraft;
+    }
+
+    /**
+     * パックのサムネイルテクスチャを返します。まだ読み込まれていなければ読み込みを開始して null を返します。
+     * アイコンを持たないパック、または読み込みに失敗したパックも null です。
+     */
+    @Nullable
+    public ResourceLocation getThumbnail(SoundPackInfo packInfo) {
+        PackResourceHandle iconResource = packInfo.getIconResource();
+        if (iconResource == null || this.closed) {
+            return null;
+        }
+        String packId = packInfo.getId();
+        Entry entry = this.entries.get(packId);
+        if (entry == null) {
+            Entry created = new Entry();
+            this.entries.put(packId, created);
+            CompletableFuture.supplyAsync(() -> loadThumbnail(packId, iconResource), Util.backgroundExecutor())
+                    .thenAcceptAsync(image -> upload(packId, created, image), this.minecraft);
+            return null;
+        }
+        return entry.texture;
+    }
+
+    @Nullable
+    private NativeImage loadThumbnail(String packId, PackResourceHandle iconResource) {
+        try {
+            byte[] iconBytes;
+            try (InputStream in = iconResource.open(Music_Player.soundPackManager.getArchivePool())) {
+                iconBytes = in.readAllBytes();
+            }
+            String contentHash = Hashing.sha256().hashBytes(iconBytes).toString();
+            Path cachedFile = DISK_CACHE_DIR.resolve(contentHash + "_" + THUMBNAIL_SIZE + ".png");
+            if (Files.isRegularFile(cachedFile)) {
+                try (InputStream in = Files.newInputStream(cachedFile)) {
+                    return NativeImage.read(in);
+                } catch (IOException e) {
+                    LOGGER.warn("Ignoring unreadable cached icon thumbnail {}: {}", cachedFile, e.getMessage());
+                }
+            }
+
+            NativeImage thumbnail;
+            try (NativeImage source = NativeImage.read(iconBytes)) {
+                thumbnail = new NativeImage(source.format(), THUMBNAIL_SIZE, THUMBNAIL_SIZE, true);
+                source.resizeSubRectTo(0, 0, source.getWidth(), source.getHeight(), thumbnail);
+            }
+            writeDiskCache(cachedFile, thumbnail);
+            return thumbnail;
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Failed to load icon for sound pack '{}': {}", packId, e.getMessage());
+            return null;
+        }
+    }
+
+    private static void writeDiskCache(Path cachedFile, NativeImage thumbnail) {
+        try {
+            Files.createDirectories(DISK_CACHE_DIR);
+            // 書きかけのファイルを読まないように、一時ファイルに書いてから置き換える
+            Path tempFile = Files.createTempFile(DISK_CACHE_DIR, "icon", ".tmp");
+            try {
+                thumbnail.writeToFile(tempFile);
+                Files.move(tempFile, cachedFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+        } catch (IOException e) {
+            LOGGER.debug("Could not write icon thumbnail cache {}: {}", cachedFile, e.getMessage());
+        }
+    }
+
+    /**
+     * クライアントスレッドでテクスチャとして登録します。
+     */
+    private void upload(String packId, Entry entry, @Nullable NativeImage image) {
+        if (image == null) {
+            return;
+        }
+        if (this.closed || this.entries.get(packId) != entry) {
+            image.close();
+            return;
+        }
+        ResourceLocation location = ResourceLocation.fromNamespaceAndPath(Music_Player.MOD_ID, "pack_icon_thumbnail/" + packId);
+        this.minecraft.getTextureManager().register(location, new DynamicTexture(image));
+        entry.texture = location;
+    }
+
+    /**
+     * 登録した全てのテクスチャを解放します。クライアントスレッドから呼び出してください。
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        for (Entry entry : this.entries.values()) {
+            if (entry.texture != null) {
+                this.minecraft.getTextureManager().release(entry.texture);
+            }
+        }
+        LOGGER.debug("Released {} pack icon thumbnails.", this.entries.size());
+        this.entries.clear();
+    }
+
+    private static final class Entry {
+        @Nullable
+        private volatile ResourceLocation texture;
+    }
+}
@@ -0,0 +1,135 @@
+package com.zoma1101.music_player.client;
+
+import com.zoma1101.music_player.sound.MusicDefinition;
+import com.zoma1101.music_player.sound.SoundPackInfo;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * サウンドパック一覧の検索用トークン索引。
+ * 表示名・説明・アセットID・条件定義に含まれるバイオーム/ディメンション名をトークンに分けて、
+ * トークンの昇順に並べた配列とパック番号の集合 (BitSet) を持ちます。
+ * 検索語はトークンの前方一致で引くので、入力の度に全てのパックを走査することはありません。
+ * <p>
+ * バイオーム/ディメンション名は条件定義が読み込まれているパックの分だけ索引に入ります。
+ */
+public class PackSearchIndex {
+    private static final Pattern TOKEN_SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private final List<SoundPackInfo> packs;
+    // 同じ添字で対応する並列配列 (tokens の昇順)
+    private final String[] tokens;
+    private final BitSet[] postings;
+
+    private PackSearchIndex(List<SoundPackInfo> packs, String[] tokens, BitSet[] postings) {
+        this.packs = packs;
+        this.tokens = tokens;
+        this.postings = postings;
+    }
+
+    public static PackSearchIndex build(List<SoundPackInfo> packs, List<MusicDefinition> definitions) {
+        Map<String, Integer> packIndexById = new HashMap<>();
+        for (int i = 0; i < packs.size(); i++) {
+            packIndexById.put(packs.get(i).getId(), i);
+        }
+
+        TreeMap<String, BitSet> tokenPostings = new TreeMap<>();
+        for (int i = 0; i < packs.size(); i++) {
+            SoundPackInfo pack = packs.get(i);
+            addTokens(tokenPostings, i, pack.getId());
+            addTokens(tokenPostings, i, pack.getAssetId());
+            if (pack.getDisplayName() != null) {
+                addTokens(tokenPostings, i, pack.getDisplayName().getString());
+            }
+            if (pack.getDescription() != null) {
+                addTokens(tokenPostings, i, pack.getDescription().getString());
+            }
+        }
+        for (MusicDefinition definition : definitions) {
+            Integer packIndex = packIndexById.get(definition.getSoundPackId());
+            if (packIndex == null) {
+                continue;
+            }
+            for (String biome : nullToEmpty(definition.getBiomes())) {
+                addTokens(tokenPostings, packIndex, biome);
+            }
+            for (String dimension : nullToEmpty(definition.getDimensions())) {
+                addTokens(tokenPostings, packIndex, dimension);
+            }
+        }
+
+        String[] tokens = tokenPostings.keySet().toArray(new String[0]);
+        BitSet[] postings = tokenPostings.values().toArray(new BitSet[0]);
+        return new PackSearchIndex(List.copyOf(packs), tokens, postings);
+    }
+
+    /**
+     * 検索語に一致するパックのIDを返します。
+     * 空白で区切った全ての語について、いずれかのトークンがその語で始まるパックだけが残ります。
+     */
+    public Set<String> search(String query) {
+        BitSet result = matchAllTerms(query.trim().toLowerCase(Locale.ROOT));
+        Set<String> matches = new HashSet<>();
+        for (int i = result.nextSetBit(0); i >= 0; i = result.nextSetBit(i + 1)) {
+            matches.add(this.packs.get(i).getId());
+        }
+        return matches;
+    }
+
+    private BitSet matchAllTerms(String normalizedQuery) {
+        BitSet result = allPacks();
+        for (String term : TOKEN_SEPARATOR.split(normalizedQuery)) {
+            if (term.isEmpty()) {
+                continue;
+            }
+            result.and(matchPrefix(term));
+            if (result.isEmpty()) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    private BitSet matchPrefix(String prefix) {
+        BitSet matched = new BitSet(this.packs.size());
+        for (int i = lowerBound(prefix); i < this.tokens.length && this.tokens[i].startsWith(prefix); i++) {
+            matched.or(this.postings[i]);
+        }
+        return matched;
+    }
+
+    private int lowerBound(String prefix) {
+        int index = Arrays.binarySearch(this.tokens, prefix);
+        return index >= 0 ? index : -(index + 1);
+    }
+
+    private BitSet allPacks() {
+        BitSet all = new BitSet(this.packs.size());
+        all.set(0, this.packs.size());
+        return all;
+    }
+
+    private static void addTokens(Map<String, BitSet> tokenPostings, int packIndex, String text) {
+        if (text == null || text.isEmpty()) {
+            return;
+        }
+        for (String token : TOKEN_SEPARATOR.split(text.toLowerCase(Locale.ROOT))) {
+            if (!token.isEmpty()) {
+                tokenPostings.computeIfAbsent(token, key -> new BitSet()).set(packIndex);
+            }
+        }
+    }
+
+    private static List<String> nullToEmpty(List<String> values) {
+        return values == null ? List.of() : values;
+    }
+}
@@ -2,23 +2,32 @@ package com.zoma1101.music_player.client;
 
 import com.zoma1101.music_player.sound.SoundPackInfo;
 import net.minecraft.client.Minecraft;
+import net.minecraft.client.gui.Font;
 import net.minecraft.client.gui.GuiGraphics;
 import net.minecraft.client.gui.components.AbstractSelectionList;
 import net.minecraft.client.gui.narration.NarratedElementType;
 import net.minecraft.client.gui.narration.NarrationElementOutput;
+import net.minecraft.locale.Language;
 import net.minecraft.network.chat.Component;
+import net.minecraft.network.chat.FormattedText;
 import net.minecraft.resources.ResourceLocation;
+import net.minecraft.util.FormattedCharSequence;
 import org.jetbrains.annotations.NotNull;
 
+import javax.annotation.Nullable;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 
 import static net.minecraft.resources.ResourceLocation.fromNamespaceAndPath;
 
 public class SoundPackList extends AbstractSelectionList<SoundPackList.SoundPackEntry> {
     public final SoundPackSelectionScreen parentScreen;
 
+    // 検索で絞り込む前の全エントリ (表示順)。絞り込み中は children() はこの部分集合になる
+    private final List<SoundPackEntry> allEntries = new ArrayList<>();
+    private boolean filtered = false;
     private SoundPackEntry draggedEntry = null;
     private double dragOffsetY = 0;
     private double mouseXForDragged = 0;
@@ -30,10 +39,34 @@ public class SoundPackList extends AbstractSelectionList<SoundPackList.SoundPack
         this.centerListVertically = false;
 
         for (SoundPackInfo pack : packs) {
-            this.addEntry(new SoundPackEntry(mc, this, pack));
+            SoundPackEntry entry = new SoundPackEntry(mc, this, pack);
+            this.allEntries.add(entry);
+            this.addEntry(entry);
         }
     }
 
+    /**
+     * 表示するパックを絞り込みます。エントリは作り直さずに再利用します。
+     *
+     * @param visiblePackIds 表示するパックのID。null の場合は全て表示する
+     */
+    public void applyFilter(@Nullable Set<String> visiblePackIds) {
+        this.filtered = visiblePackIds != null;
+        this.draggedEntry = null;
+        if (visiblePackIds == null) {
+            this.replaceEntries(this.allEntries);
+        } else {
+            List<SoundPackEntry> visible = new ArrayList<>(visiblePackIds.size());
+            for (SoundPackEntry entry : this.allEntries) {
+                if (visiblePackIds.contains(entry.packInfo.getId())) {
+                    visible.add(entry);
+                }
+            }
+            this.replaceEntries(visible);
+        }
+        this.setScrollAmount(this.getScrollAmount()); // 範囲外にならないように補正
+    }
+
     public SoundPackEntry getDraggedEntry() {
         return this.draggedEntry;
     }
@@ -75,12 +108,12 @@ public class SoundPackList extends AbstractSelectionList<SoundPackList.SoundPack
                 int rowLeft = this.getRowLeft();
                 // チェックボックスまたはアイコン（左端から36px）のクリックならアクティブ状態のON/OFFのみ行う
                 if (mouseX >= rowLeft && mouseX < rowLeft + 36) {
-                    this.parentScreen.togglePackActivation(entry.packInfo.getId());
-                    // 状態が変わったのでリストを再構築して並び順を即時反映
-                    this.parentScreen.rebuildSoundPackList();
+                    // 並び順は有効/無効に関係しないので、リストは作り直さずにこのエントリの状態だけを更新する
+                    entry.setCurrentlyActive(this.parentScreen.togglePackActivation(entry.packInfo.getId()));
                     return true;
-                } else {
+                } else if (!this.filtered) {
                     // テキスト領域などのクリックならドラッグ開始（すべてのパック）
+                    // 絞り込み中は非表示のパックとの順序が決められないので並び替えない
                     this.draggedEntry = entry;
                     int index = this.children().indexOf(entry);
                     // 親クラスの getRowTop を使用してエントリの上端Y座標を取得
@@ -108,8 +141,9 @@ public class SoundPackList extends AbstractSelectionList<SoundPackList.SoundPack
                 int hoveredIndex = this.children().indexOf(hoveredEntry);
                 int currentIndex = this.children().indexOf(this.draggedEntry);
                 if (hoveredIndex >= 0 && hoveredIndex != currentIndex) {
-                    // リスト内で位置を入れ替える
+                    // リスト内で位置を入れ替える (絞り込んでいない時だけなので children() と allEntries は同じ並び)
                     Collections.swap(this.children(), currentIndex, hoveredIndex);
+                    Collections.swap(this.allEntries, currentIndex, hoveredIndex);
                     // 親スクリーンの一時的な順序を更新
                     this.parentScreen.updateOrderFromList(this.children());
                 }
@@ -123,9 +157,8 @@ public class SoundPackList extends AbstractSelectionList<SoundPackList.SoundPack
     public boolean mouseReleased(double mouseX, double mouseY, int button) {
         if (button == 0 && this.draggedEntry != null) {
             this.draggedEntry = null;
-            // 順序変更を確定して親画面の設定に反映し、再描画
+            // 順序変更を確定して親画面の設定に反映する (エントリはドラッグ中に入れ替え済みなので作り直さない)
             this.parentScreen.updateOrderFromList(this.children());
-            this.parentScreen.rebuildSoundPackList();
             return true;
         }
         return super.mouseReleased(mouseX, mouseY, button);
@@ -171,8 +204,16 @@ public class SoundPackList extends AbstractSelectionList<SoundPackList.SoundPack
         public final SoundPackInfo packInfo;
         public boolean isCurrentlyActive;
 
+        // 文字のレイアウトは幅が変わった時だけ計算し、毎フレームの font.split を避ける
+        private int cachedTextWidth = -1;
+        private FormattedCharSequence cachedNameLine = FormattedCharSequence.EMPTY;
+        private List<FormattedCharSequence> cachedDescriptionLines = List.of();
+
         private static final ResourceLocation CHECKBOX_SELECTED_SPRITE = fromNamespaceAndPath("minecraft", "widget/checkbox_selected");
         private static final ResourceLocation CHECKBOX_UNSELECTED_SPRITE = fromNamespaceAndPath("minecraft", "widget/checkbox");
+        private static final FormattedText ELLIPSIS = FormattedText.of("...");
+        private static final int MAX_DESCRIPTION_LINES = 2;
+        private static final Component LOADING_TEXT = Component.translatable("gui.music_player.soundpack_selection.loading_definitions");
 
         public SoundPackEntry(Minecraft mc, SoundPackList list, SoundPackInfo pack) {
             this.minecraft = mc;
@@ -185,6 +226,34 @@ public class SoundPackList extends AbstractSelectionList<SoundPackList.SoundPack
             this.isCurrentlyActive = this.list.parentScreen.getCurrentWorkingActivePackIds().contains(this.packInfo.getId());
         }
 
+        public void setCurrentlyActive(boolean active) {
+            this.isCurrentlyActive = active;
+        }
+
+        private void updateTextLayout(int textWidth) {
+            if (textWidth == this.cachedTextWidth) {
+                return;
+            }
+            this.cachedTextWidth = textWidth;
+            Font font = this.minecraft.font;
+
+            Component packName = this.packInfo.getDisplayName();
+            if (font.width(packName) <= textWidth) {
+                this.cachedNameLine = packName.getVisualOrderText();
+            } else {
+                FormattedText truncated = font.substrByWidth(packName, Math.max(0, textWidth - font.width(ELLIPSIS)));
+                this.cachedNameLine = Language.getInstance().getVisualOrder(FormattedText.composite(truncated, ELLIPSIS));
+            }
+
+            Component description = this.packInfo.getDescription();
+            if (description != null && !description.getString().isEmpty()) {
+                List<FormattedCharSequence> lines = font.split(description, Math.max(1, textWidth));
+                this.cachedDescriptionLines = List.copyOf(lines.subList(0, Math.min(lines.size(), MAX_DESCRIPTION_LINES)));
+            } else {
+                this.cachedDescriptionLines = List.of();
+            }
+        }
+
         public SoundPackInfo getPackInfo() {
             return this.packInfo;
         }
@@ -210,11 +279,17 @@ public class SoundPackList extends AbstractSelectionList<SoundPackList.SoundPack
         }
 
         private void renderContent(@NotNull GuiGraphics guiGraphics, int top, int left, int width, int height, int mouseX, int mouseY, boolean isHovering, float partialTicks) {
-            ResourceLocation iconToRender = this.packInfo.getIconLocation();
             int iconSize = 32;
 
-            if (iconToRender != null) {
-                guiGraphics.blit(iconToRender, left + 2, top + (height - iconSize) / 2, iconSize, iconSize, 0, 0, iconSize, iconSize, iconSize, iconSize);
+            if (this.packInfo.getIconResource() != null) {
+                // 縮小済みのサムネイルを使う (描画された行の分だけ読み込まれ、読み込み中は枠だけを描く)
+                ResourceLocation thumbnail = this.list.parentScreen.getIconCache().getThumbnail(this.packInfo);
+                int thumbnailSize = PackIconCache.THUMBNAIL_SIZE;
+                if (thumbnail != null) {
+                    guiGraphics.blit(thumbnail, left + 2, top + (height - iconSize) / 2, iconSize, iconSize, 0, 0, thumbnailSize, thumbnailSize, thumbnailSize, thumbnailSize);
+                } else {
+                    guiGraphics.fill(left + 2, top + (height - iconSize) / 2, left + 2 + iconSize, top + (height + iconSize) / 2, 0x40FFFFFF);
+                }
                 if (this.isCurrentlyActive) {
                     guiGraphics.renderOutline(left + 1, top + (height - iconSize) / 2 - 1, iconSize + 2, iconSize + 2, 0xFFFFFFFF);
                 }
@@ -224,13 +299,19 @@ public class SoundPackList extends AbstractSelectionList<SoundPackList.SoundPack
             }
 
             int textLeftOffset = left + 2 + iconSize + 4;
-            Component packName = this.packInfo.getDisplayName();
+            updateTextLayout(left + width - textLeftOffset - 4);
             int textColor = this.isCurrentlyActive ? 0xFFFF00 : 0xFFFFFF;
-            guiGraphics.drawString(this.minecraft.font, packName, textLeftOffset, top + 2, textColor);
+            guiGraphics.drawString(this.minecraft.font, this.cachedNameLine, textLeftOffset, top + 2, textColor);
+            if (this.list.parentScreen.isLoadingDefinitions(this.packInfo.getId())) {
+                // 条件定義の読み込みが終わるまで右上に表示する
+                Font font = this.minecraft.font;
+                guiGraphics.drawString(font, LOADING_TEXT, left + width - font.width(LOADING_TEXT) - 4, top + 2, 0xA0A0A0);
+            }
 
-            Component description = this.packInfo.getDescription();
-            if (description != null && !description.getString().isEmpty()) {
-                guiGraphics.drawString(this.minecraft.font, description, textLeftOffset, top + 2 + this.minecraft.font.lineHeight + 2, 0xAAAAAA);
+            int lineTop = top + 2 + this.minecraft.font.lineHeight + 2;
+            for (FormattedCharSequence line : this.cachedDescriptionLines) {
+                guiGraphics.drawString(this.minecraft.font, line, textLeftOffset, lineTop, 0xAAAAAA);
+                lineTop += this.minecraft.font.lineHeight;
             }
         }
 
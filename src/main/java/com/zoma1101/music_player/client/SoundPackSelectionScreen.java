@@ -2,12 +2,15 @@ package com.zoma1101.music_player.client;
 
 import com.mojang.logging.LogUtils;
 import com.zoma1101.music_player.Music_Player;
+import com.zoma1101.music_player.sound.PackScanProgress;
 import com.zoma1101.music_player.sound.SoundPackInfo;
 // SoundPackDataManagerが提供するSoundPackクラス
 import com.zoma1101.music_player.sound.SoundPackManager;
 import net.minecraft.Util;
+import net.minecraft.client.Minecraft;
 import net.minecraft.client.gui.GuiGraphics;
 import net.minecraft.client.gui.components.Button;
+import net.minecraft.client.gui.components.EditBox;
 import net.minecraft.client.gui.components.MultiLineLabel;
 import net.minecraft.client.gui.screens.Screen;
 import net.minecraft.network.chat.CommonComponents;
@@ -15,8 +18,14 @@ import net.minecraft.network.chat.Component;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 
+import javax.annotation.Nullable;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 
 public class SoundPackSelectionScreen extends Screen {
@@ -30,6 +39,20 @@ public class SoundPackSelectionScreen extends Screen {
     private List<String> currentWorkingPackOrder;
 
     private MultiLineLabel noPacksLabel = MultiLineLabel.EMPTY;
+    private Button doneButton;
+    private EditBox searchBox;
+    private PackSearchIndex searchIndex;
+    // アイコンのサムネイル。画面が閉じられる (removed) 時にテクスチャごと解放する
+    @Nullable
+    private PackIconCache iconCache;
+    // 画面の再初期化 (リサイズや再読込) をまたいで検索語を保持する
+    private String searchQuery = "";
+    private Button reloadButton;
+    // バックグラウンドでのパック再読込の進捗 (読み込み中でなければ null)
+    @Nullable
+    private PackScanProgress reloadProgress = null;
+    // 有効化されて条件定義をバックグラウンドで読み込み中のパック
+    private final Set<String> loadingDefinitionPackIds = new HashSet<>();
 
     public SoundPackSelectionScreen(Screen parentScreen) {
         super(Component.translatable("gui.music_player.soundpack_selection.title"));
@@ -56,22 +79,34 @@ public class SoundPackSelectionScreen extends Screen {
         }
 
         // 表示用リストを作成：currentWorkingPackOrder の順序に従って利用可能なパックを並べる
-        List<SoundPackInfo> displayPacks = new ArrayList<>();
-        for (String id : this.currentWorkingPackOrder) {
-            availablePacks.stream().filter(p -> p.getId().equals(id)).findFirst().ifPresent(displayPacks::add);
-        }
-        // もし新しくロードされたパックなどがあって currentWorkingPackOrder に入っていないものがあれば末尾に追加
+        Map<String, SoundPackInfo> remainingPacks = new LinkedHashMap<>();
         for (SoundPackInfo pack : availablePacks) {
-            if (!displayPacks.contains(pack)) {
+            remainingPacks.put(pack.getId(), pack);
+        }
+        List<SoundPackInfo> displayPacks = new ArrayList<>(availablePacks.size());
+        for (String id : this.currentWorkingPackOrder) {
+            SoundPackInfo pack = remainingPacks.remove(id);
+            if (pack != null) {
                 displayPacks.add(pack);
             }
         }
+        // もし新しくロードされたパックなどがあって currentWorkingPackOrder に入っていないものがあれば末尾に追加
+        displayPacks.addAll(remainingPacks.values());
+
+        // 検索用の索引はパック一覧が作り直される時だけ構築する
+        this.searchIndex = PackSearchIndex.build(availablePacks, Music_Player.soundPackManager.getLoadedMusicDefinitions());
+        this.searchBox = new EditBox(this.font, this.width / 2 - 154, 20, 308, 14, Component.translatable("gui.music_player.soundpack_selection.search"));
+        this.searchBox.setHint(Component.translatable("gui.music_player.soundpack_selection.search"));
+        this.searchBox.setValue(this.searchQuery);
+        this.searchBox.setResponder(this::onSearchChanged);
+        this.addRenderableWidget(this.searchBox);
 
-        this.soundPackList = new SoundPackList(this.minecraft, this.width, this.height - 64 - 32, 32, this.height - 64, 36, displayPacks, this);
+        this.soundPackList = new SoundPackList(this.minecraft, this.width, this.height - 64 - 38, 38, this.height - 64, 36, displayPacks, this);
         this.addWidget(this.soundPackList);
+        onSearchChanged(this.searchQuery);
 
 
-        this.addRenderableWidget(Button.builder(CommonComponents.GUI_DONE, (button) -> {
+        this.doneButton = this.addRenderableWidget(Button.builder(CommonComponents.GUI_DONE, (button) -> {
                     applyChanges();
                     if (this.minecraft != null) {
                         this.minecraft.setScreen(this.parentScreen);
@@ -87,9 +122,10 @@ public class SoundPackSelectionScreen extends Screen {
                 .bounds(this.width / 2 - 154, this.height - 28, 150, 20)
                 .build());
 
-        this.addRenderableWidget(Button.builder(Component.translatable("gui.music_player.soundpack_selection.reload_packs"), (button) -> reloadPacks())
+        this.reloadButton = this.addRenderableWidget(Button.builder(Component.translatable("gui.music_player.soundpack_selection.reload_packs"), (button) -> reloadPacks())
                 .bounds(this.width / 2 + 4, this.height - 28, 150, 20)
                 .build());
+        updateReloadWidgets();
 
         if (availablePacks.isEmpty()) {
             this.noPacksLabel = MultiLineLabel.create(this.font, Component.translatable("gui.music_player.soundpack_selection.no_packs"), this.width - 50);
@@ -99,16 +135,84 @@ public class SoundPackSelectionScreen extends Screen {
     }
 
     private void reloadPacks() {
-        // SoundPackManager が null の場合のチェックを追加
-        // reloadPacks時に一時的に音楽を停止 (ZipFileSystemのクローズによるエラーを防止)
-        com.zoma1101.music_player.ClientMusicManager.stopMusic(false);
-        Music_Player.soundPackManager.discoverAndLoadPacks();
+        if (this.minecraft == null) {
+            LOGGER.error("Minecraft instance is null. Cannot reload packs.");
+            return;
+        }
+        if (this.reloadProgress != null) {
+            // 読み込み中にもう一度押された場合はキャンセル
+            this.reloadProgress.cancel();
+            updateReloadWidgets();
+            return;
+        }
+        // パックの読み込みはバックグラウンドで行い、完了したらクライアントスレッドで一覧を差し替える
+        // 再生中のアーカイブはピン留めされているのでプールを作り直しても再生は途切れない
+        PackScanProgress progress = new PackScanProgress();
+        this.reloadProgress = progress;
+        CompletableFuture.supplyAsync(() -> Music_Player.soundPackManager.discoverAndLoadPacks(progress), Util.backgroundExecutor())
+                .whenCompleteAsync((applied, throwable) -> onReloadFinished(progress, applied, throwable), this.minecraft);
+        updateReloadWidgets();
+    }
 
-        if (this.minecraft != null) {
-            this.clearWidgets();
-            this.init();
-        } else {
-            LOGGER.error("Minecraft instance is null. Cannot re-initialize screen after reloading packs.");
+    public PackIconCache getIconCache() {
+        if (this.iconCache == null) {
+            this.iconCache = new PackIconCache(Minecraft.getInstance());
+        }
+        return this.iconCache;
+    }
+
+    @Override
+    public void removed() {
+        super.removed();
+        if (this.iconCache != null) {
+            this.iconCache.close();
+            this.iconCache = null;
+        }
+    }
+
+    private void onSearchChanged(String query) {
+        this.searchQuery = query;
+        if (this.soundPackList == null) {
+            return;
+        }
+        this.soundPackList.applyFilter(query.isBlank() ? null : this.searchIndex.search(query));
+    }
+
+    private void onReloadFinished(PackScanProgress progress, @Nullable Boolean applied, @Nullable Throwable throwable) {
+        if (this.reloadProgress == progress) {
+            this.reloadProgress = null;
+        }
+        if (throwable != null) {
+            LOGGER.error("Background sound pack reload failed", throwable);
+        } else if (Boolean.TRUE.equals(applied)) {
+            LOGGER.info("Background sound pack reload finished: {} packs scanned, {} definitions parsed, {} errors.",
+                    progress.getPacksScanned(), progress.getDefinitionsParsed(), progress.getErrors());
+            // 追加・更新されたパックのファイルをサウンドイベントに反映させる
+            // (サウンドに差分がなければリロードせず、条件定義の変更だけが反映されるので曲も止まらない)
+            if (this.minecraft != null) {
+                SoundReloadHelper.reloadSounds(this.minecraft);
+            }
+        }
+        // 画面がまだ開いていれば新しい一覧に差し替える (アイコンが差し替わっている可能性があるのでサムネイルも作り直す)
+        if (this.minecraft != null && this.minecraft.screen == this) {
+            if (this.iconCache != null) {
+                this.iconCache.close();
+                this.iconCache = null;
+            }
+            rebuildSoundPackList();
+        }
+    }
+
+    private void updateReloadWidgets() {
+        boolean reloading = this.reloadProgress != null;
+        if (this.reloadButton != null) {
+            this.reloadButton.setMessage(reloading ? CommonComponents.GUI_CANCEL : Component.translatable("gui.music_player.soundpack_selection.reload_packs"));
+            this.reloadButton.active = !reloading || !this.reloadProgress.isCancelled();
+        }
+        if (this.doneButton != null) {
+            // 読み込み中に変更を適用すると、置き換え途中のパック一覧に対して適用してしまうため無効にする
+            // (条件定義の読み込み中に適用すると、読み込みが終わるまで描画スレッドが待たされる)
+            this.doneButton.active = !reloading && this.loadingDefinitionPackIds.isEmpty();
         }
     }
 
@@ -125,10 +229,15 @@ public class SoundPackSelectionScreen extends Screen {
         }
 
         if (changed) {
+            if (Music_Player.soundPackManager.canApplyWithoutReload(this.currentWorkingActivePackIds)) {
+                // 全パックのイベントが登録済みなので、再生する曲の選び直しは ClientMusicManager の次回の更新に任せる
+                LOGGER.info("Applied sound pack changes (activation or order) without a resource reload.");
+                return;
+            }
             if (this.minecraft != null) {
-                this.minecraft.reloadResourcePacks();
+                SoundReloadHelper.reloadSounds(this.minecraft);
             }
-            LOGGER.info("Applied sound pack changes (activation or order) and triggered resource reload.");
+            LOGGER.info("Applied sound pack changes (activation or order) and triggered sound-only reload.");
         } else {
             LOGGER.info("No changes in sound packs to apply.");
         }
@@ -139,17 +248,52 @@ public class SoundPackSelectionScreen extends Screen {
     }
 
     public boolean togglePackActivation(String packId) {
+        if (this.reloadProgress != null) {
+            // 読み込み中はパックの一覧が置き換わるので切り替えを受け付けない
+            return this.currentWorkingActivePackIds.contains(packId);
+        }
         if (this.currentWorkingActivePackIds.contains(packId)) {
             this.currentWorkingActivePackIds.remove(packId);
         } else {
             this.currentWorkingActivePackIds.add(packId);
+            // 非アクティブなパックはメタデータしか読み込まれていないので、有効化した時点で条件定義を読み込む
+            loadPackDefinitionsInBackground(packId);
         }
-        if (this.soundPackList != null) {
-            this.soundPackList.children().forEach(SoundPackList.SoundPackEntry::updateSelectedStatus);
-        }
+        // 表示の更新はクリックされたエントリだけを SoundPackList 側で行う
         return this.currentWorkingActivePackIds.contains(packId);
     }
 
+    /**
+     * パックの条件定義をバックグラウンドで読み込みます。
+     * OGG のハッシュの計算やヘッダーの確認は大きなパックでは時間がかかるため、描画スレッドでは行いません。
+     */
+    private void loadPackDefinitionsInBackground(String packId) {
+        if (this.minecraft == null || Music_Player.soundPackManager.isPackDefinitionsLoaded(packId)
+                || !this.loadingDefinitionPackIds.add(packId)) {
+            return;
+        }
+        CompletableFuture.runAsync(() -> Music_Player.soundPackManager.ensurePackDefinitionsLoaded(packId), Util.backgroundExecutor())
+                .whenCompleteAsync((unused, throwable) -> onPackDefinitionsLoaded(packId, throwable), this.minecraft);
+        updateReloadWidgets();
+    }
+
+    private void onPackDefinitionsLoaded(String packId, @Nullable Throwable throwable) {
+        this.loadingDefinitionPackIds.remove(packId);
+        if (throwable != null) {
+            LOGGER.error("Failed to load the definitions of sound pack {}", packId, throwable);
+        }
+        if (this.minecraft != null && this.minecraft.screen == this && this.soundPackList != null) {
+            // 読み込んだ定義のバイオームなどでも検索できるように索引を作り直す
+            this.searchIndex = PackSearchIndex.build(Music_Player.soundPackManager.getLoadedSoundPacks(), Music_Player.soundPackManager.getLoadedMusicDefinitions());
+            onSearchChanged(this.searchQuery);
+        }
+        updateReloadWidgets();
+    }
+
+    public boolean isLoadingDefinitions(String packId) {
+        return this.loadingDefinitionPackIds.contains(packId);
+    }
+
     public void updateOrderFromList(List<SoundPackList.SoundPackEntry> entries) {
         List<String> newOrder = new ArrayList<>();
         for (SoundPackList.SoundPackEntry entry : entries) {
@@ -181,12 +325,33 @@ public class SoundPackSelectionScreen extends Screen {
         if (this.soundPackList != null) {
             this.soundPackList.render(guiGraphics, mouseX, mouseY, partialTicks); // リストを描画
         }
-        guiGraphics.drawCenteredString(this.font, this.title, this.width / 2, 15, 0xFFFFFF);
+        guiGraphics.drawCenteredString(this.font, this.title, this.width / 2, 8, 0xFFFFFF);
+        if (this.reloadProgress != null) {
+            renderReloadProgress(guiGraphics, this.reloadProgress);
+        }
         if (this.noPacksLabel != MultiLineLabel.EMPTY && this.noPacksLabel != null) {
             this.noPacksLabel.renderCentered(guiGraphics, this.width / 2, this.height / 2 - this.noPacksLabel.getLineCount() * this.font.lineHeight / 2);
         }
     }
 
+    private void renderReloadProgress(GuiGraphics guiGraphics, PackScanProgress progress) {
+        Component status = Component.translatable("gui.music_player.soundpack_selection.reload_progress",
+                progress.getPacksScanned(), progress.getPacksTotal(), progress.getDefinitionsParsed(), progress.getErrors());
+        // リストと完了ボタンの間の余白に、進捗の文字と細いバーを描画する
+        guiGraphics.drawCenteredString(this.font, status, this.width / 2, this.height - 63, 0xA0A0A0);
+        int barLeft = this.width / 2 - 154;
+        int barWidth = 308;
+        int barTop = this.height - 54;
+        guiGraphics.fill(barLeft, barTop, barLeft + barWidth, barTop + 1, 0xFF404040);
+        guiGraphics.fill(barLeft, barTop, barLeft + (int) (barWidth * progress.getScanFraction()), barTop + 1, 0xFF80FF80);
+    }
+
+    @Override
+    public void tick() {
+        super.tick();
+        updateReloadWidgets();
+    }
+
     @Override
     public void onClose() {
         if (this.minecraft != null) {
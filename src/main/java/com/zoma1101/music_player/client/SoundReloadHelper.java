@@ -0,0 +1,100 @@
+package com.zoma1101.music_player.client;
+
+import com.mojang.logging.LogUtils;
+import com.zoma1101.music_player.ClientMusicManager;
+import com.zoma1101.music_player.Music_Player;
+import com.zoma1101.music_player.sound.ModSoundResourcePack;
+import com.zoma1101.music_player.sound.SoundResourceSnapshot;
+import net.minecraft.Util;
+import net.minecraft.client.Minecraft;
+import net.minecraft.server.packs.resources.ReloadInstance;
+import net.minecraft.server.packs.resources.SimpleReloadInstance;
+import net.minecraft.util.Unit;
+import org.slf4j.Logger;
+
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * sounds.json の変更をサウンドシステムだけに反映させるためのリロード処理。
+ * {@code Minecraft.reloadResourcePacks()} はテクスチャ・モデル・言語ファイルなど全てを読み直すため、
+ * ここでは {@link net.minecraft.client.sounds.SoundManager} だけをリロードリスナーとして実行します。
+ */
+public final class SoundReloadHelper {
+    private static final Logger LOGGER = LogUtils.getLogger();
+
+    @Nullable
+    private static CompletableFuture<?> pendingReload = null;
+    // 実行中のリロードの後にもう一度リロードする予定があるかどうか
+    private static boolean reloadQueued = false;
+
+    private SoundReloadHelper() {
+    }
+
+    /**
+     * サウンドパックの現在の状態でサウンドイベントを登録し直します。
+     * 登録済みのサウンドと差分がない場合（条件定義だけが変わった場合）はリロードせず、再生中の曲もそのままにします。
+     * 既にリロード中の場合は、そのリロードの完了後にもう一度最新の状態で反映させ、その完了を待つ Future を返します。
+     * クライアントスレッドから呼び出してください。
+     */
+    public static CompletableFuture<?> reloadSounds(Minecraft minecraft) {
+        if (pendingReload != null && !pendingReload.isDone()) {
+            if (!reloadQueued) {
+                // 実行中のリロードは変更前のスナップショットを読んでいるので、終わってからもう一度反映させる
+                // (何度変更されても、待っている間の変更は一度のリロードにまとめる)
+                LOGGER.debug("Sound-only reload is already in progress. Queued another reload after it.");
+                reloadQueued = true;
+                pendingReload = pendingReload
+                        .handle((result, throwable) -> null)
+                        .thenComposeAsync(unused -> {
+                            reloadQueued = false;
+                            pendingReload = null;
+                            return reloadSounds(minecraft).thenRun(() -> {
+                            });
+                        }, minecraft);
+            }
+            return pendingReload;
+        }
+        ModSoundResourcePack resourcePack = Music_Player.getModSoundResourcePack();
+        if (resourcePack == null) {
+            // リソースパックがまだ登録されていない場合は通常のリロードに任せる
+            LOGGER.warn("Dynamic sound pack is not registered yet. Falling back to a full resource reload.");
+            return minecraft.reloadResourcePacks();
+        }
+
+        // SoundManager は準備フェーズで sounds.json を読むので、先にスナップショットを更新しておく
+        SoundResourceSnapshot previous = resourcePack.getSnapshot();
+        SoundResourceSnapshot captured = SoundResourceSnapshot.capture(Music_Player.soundPackManager);
+        resourcePack.installSnapshot(captured);
+        if (previous != SoundResourceSnapshot.EMPTY && previous.hasSameSounds(captured)) {
+            if (previous.hasSameDefinitions(captured)) {
+                LOGGER.info("Sound packs are unchanged. Skipped the sound system reload.");
+            } else {
+                // 条件定義は SoundPackManager 上で既に置き換わっているので、ClientMusicManager の次回の更新で反映される
+                LOGGER.info("Registered sounds are unchanged. Applied definition changes without reloading the sound system.");
+            }
+            return CompletableFuture.completedFuture(null);
+        }
+        // サウンドエンジンはリロード時に全ての音を止めるので、フェード状態などをここで片付ける
+        ClientMusicManager.stopMusic(false);
+
+        long startTime = System.nanoTime();
+        ReloadInstance reloadInstance = SimpleReloadInstance.create(
+                minecraft.getResourceManager(),
+                List.of(minecraft.getSoundManager()),
+                Util.backgroundExecutor(),
+                minecraft,
+                CompletableFuture.completedFuture(Unit.INSTANCE),
+                false);
+        CompletableFuture<?> done = reloadInstance.done().whenComplete((result, throwable) -> {
+            if (throwable != null) {
+                LOGGER.error("Sound-only reload failed", throwable);
+            } else {
+                LOGGER.info("Sound-only reload finished in {} ms.", (System.nanoTime() - startTime) / 1_000_000L);
+            }
+        });
+        pendingReload = done;
+        return done;
+    }
+}
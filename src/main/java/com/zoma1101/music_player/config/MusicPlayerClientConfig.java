@@ -9,6 +9,13 @@ public class MusicPlayerClientConfig {
 
     public final ForgeConfigSpec.IntValue fadeInTicks;
     public final ForgeConfigSpec.IntValue fadeOutTicks;
+    public final ForgeConfigSpec.IntValue maxOpenArchives;
+    public final ForgeConfigSpec.BooleanValue registerAllPacks;
+    public final ForgeConfigSpec.BooleanValue dedupeIdenticalAudio;
+    public final ForgeConfigSpec.IntValue preloadMaxSeconds;
+    public final ForgeConfigSpec.IntValue preloadBudgetKb;
+    public final ForgeConfigSpec.IntValue prefetchCacheKb;
+    public final ForgeConfigSpec.IntValue recentAudioCacheKb;
 
     static {
         Pair<MusicPlayerClientConfig, ForgeConfigSpec> specPair = new ForgeConfigSpec.Builder().configure(MusicPlayerClientConfig::new);
@@ -26,5 +33,45 @@ public class MusicPlayerClientConfig {
                 .defineInRange("fade_out_ticks", 40, 0, 1000);
                 
         builder.pop();
+
+        builder.push("PerformanceSettings");
+
+        maxOpenArchives = builder.comment("Maximum number of ZIP sound pack archives kept open at the same time. Archives that are currently streaming are never closed.")
+                .defineInRange("max_open_archives", 16, 1, 1024);
+
+        registerAllPacks = builder.comment("Register the sound events of every loaded sound pack, not only the active ones.",
+                        "Enabling or disabling packs then applies instantly without a resource reload,",
+                        "at the cost of loading the definitions of all packs at startup.")
+                .define("register_all_packs", false);
+
+        dedupeIdenticalAudio = builder.comment("Detect sound files with identical content (by hash) across packs and serve them as one resource.",
+                        "Switching between definitions that use the same audio then continues playback instead of restarting it.",
+                        "Hashes are cached in cache/music_player/audio_files.json.")
+                .define("dedupe_identical_audio", false);
+
+        preloadMaxSeconds = builder.comment("Sound files up to this length (in seconds) are registered without streaming,",
+                        "so the sound engine keeps them decoded in memory and they start instantly. 0 streams every track.")
+                .defineInRange("preload_max_seconds", 10, 0, 600);
+
+        preloadBudgetKb = builder.comment("Upper limit (in KiB) of decoded audio kept in memory for non-streamed tracks.",
+                        "Shorter tracks are chosen first; tracks that do not fit are streamed.")
+                .defineInRange("preload_budget_kb", 16384, 0, 1048576);
+
+        prefetchCacheKb = builder.comment("Upper limit (in KiB) of memory used to prefetch the beginning of the tracks likely to play next.",
+                        "Predictions are learned from past track changes (cache/music_player/track_transitions.json). 0 disables prefetching.")
+                .defineInRange("prefetch_cache_kb", 1024, 0, 65536);
+
+        recentAudioCacheKb = builder.comment("Upper limit (in KiB) of memory used to keep recently played sound files from ZIP packs,",
+                        "so replaying them does not read and inflate the archive again. 0 disables the cache.")
+                .defineInRange("recent_audio_cache_kb", 32768, 0, 1048576);
+
+        builder.pop();
+    }
+
+    /**
+     * 設定がまだ読み込まれていない（サーバー側など）場合はデフォルト値を返します。
+     */
+    public static <T> T getOrDefault(ForgeConfigSpec.ConfigValue<T> value) {
+        return SPEC.isLoaded() ? value.get() : value.getDefault();
     }
 }
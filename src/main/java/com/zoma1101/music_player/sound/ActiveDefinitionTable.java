@@ -0,0 +1,248 @@
+package com.zoma1101.music_player.sound;
+
+import com.mojang.logging.LogUtils;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * 有効な条件定義を優先順に並べ、単純な条件を列ごとのプリミティブ配列に展開した表。
+ * 曲の選択では先頭から順に、高さ・昼夜/戦闘/村・天候・ディメンションの条件を配列だけで判定し、
+ * それを満たした定義のうちバイオーム・GUI・エンティティの条件を持つものだけを {@link MusicDefinition} で判定します。
+ * 有効な定義の一覧が変わる度に {@link SoundPackManager} が作り直します。
+ */
+public class ActiveDefinitionTable {
+    private static final Logger LOGGER = LogUtils.getLogger();
+
+    public static final ActiveDefinitionTable EMPTY = build(List.of());
+
+    // --- 状態のビット (requiredSet / requiredValue と現在の状態で共通) ---
+    public static final int STATE_NIGHT = 1;
+    public static final int STATE_COMBAT = 1 << 1;
+    public static final int STATE_VILLAGE = 1 << 2;
+    // --- 天候のビット (weatherMask と現在の天候で共通) ---
+    public static final int WEATHER_CLEAR = 1;
+    public static final int WEATHER_RAIN = 1 << 1;
+    public static final int WEATHER_THUNDER = 1 << 2;
+    // 天候が指定されているが既知の値が一つもない (どの天候にも一致しない)
+    private static final int WEATHER_NEVER = 1 << 3;
+    // ディメンションのビットに収まらない場合は定義そのもので判定する。最上位ビットは「どれにも一致しない」に使う
+    private static final int MAX_DIMENSION_BITS = 63;
+    private static final long DIMENSION_NEVER = 1L << 63;
+
+    // 同じ添字で対応する並列配列 (優先順)
+    private final MusicDefinition[] definitions;
+    private final int[] minY;
+    private final int[] maxY;
+    private final int[] requiredSet;
+    private final int[] requiredValue;
+    private final int[] weatherMask;
+    private final long[] dimensionMask;
+    // バイオーム・GUI・エンティティなど、配列で判定できない条件を持つかどうか
+    private final boolean[] needsFullCheck;
+    // ディメンションID -> dimensionMask のビット番号
+    private final Map<String, Integer> dimensionBits;
+
+    private ActiveDefinitionTable(MusicDefinition[] definitions, int[] minY, int[] maxY, int[] requiredSet, int[] requiredValue,
+                                  int[] weatherMask, long[] dimensionMask, boolean[] needsFullCheck, Map<String, Integer> dimensionBits) {
+        this.definitions = definitions;
+        this.minY = minY;
+        this.maxY = maxY;
+        this.requiredSet = requiredSet;
+        this.requiredValue = requiredValue;
+        this.weatherMask = weatherMask;
+        this.dimensionMask = dimensionMask;
+        this.needsFullCheck = needsFullCheck;
+        this.dimensionBits = dimensionBits;
+    }
+
+    /**
+     * 優先順に並んだ定義から表を作ります。無効な定義はここで一度だけ警告して除外します。
+     */
+    public static ActiveDefinitionTable build(List<MusicDefinition> sortedDefinitions) {
+        List<MusicDefinition> valid = sortedDefinitions.stream()
+                .filter(definition -> {
+                    if (!definition.isValid()) {
+                        LOGGER.warn("Skipping invalid music definition during match finding: {}", definition);
+                        return false;
+                    }
+                    return true;
+                })
+                .toList();
+
+        int size = valid.size();
+        MusicDefinition[] definitions = valid.toArray(new MusicDefinition[0]);
+        int[] minY = new int[size];
+        int[] maxY = new int[size];
+        int[] requiredSet = new int[size];
+        int[] requiredValue = new int[size];
+        int[] weatherMask = new int[size];
+        long[] dimensionMask = new long[size];
+        boolean[] needsFullCheck = new boolean[size];
+        Map<String, Integer> dimensionBits = new HashMap<>();
+
+        for (int i = 0; i < size; i++) {
+            MusicDefinition definition = definitions[i];
+            minY[i] = definition.hasMinY() ? definition.getMinY() : Integer.MIN_VALUE;
+            maxY[i] = definition.hasMaxY() ? definition.getMaxY() : Integer.MAX_VALUE;
+            requiredSet[i] = presenceBit(definition.isNight(), STATE_NIGHT)
+                    | presenceBit(definition.isCombat(), STATE_COMBAT)
+                    | presenceBit(definition.isVillage(), STATE_VILLAGE);
+            requiredValue[i] = valueBit(definition.isNight(), STATE_NIGHT)
+                    | valueBit(definition.isCombat(), STATE_COMBAT)
+                    | valueBit(definition.isVillage(), STATE_VILLAGE);
+            weatherMask[i] = weatherMask(definition.getWeather());
+
+            boolean fullCheck = isPresent(definition.getBiomes())
+                    || (definition.getGuiScreen() != null && !definition.getGuiScreen().isBlank())
+                    || isPresent(definition.getEntityConditions());
+            List<String> dimensions = definition.getDimensions();
+            if (isPresent(dimensions)) {
+                long mask = dimensionMask(dimensions, dimensionBits);
+                if (mask == 0) {
+                    // ビットが足りない場合は定義そのもので判定する (ディメンションの条件は配列では判定しない)
+                    fullCheck = true;
+                }
+                dimensionMask[i] = mask;
+            }
+            needsFullCheck[i] = fullCheck;
+        }
+        return new ActiveDefinitionTable(definitions, minY, maxY, requiredSet, requiredValue, weatherMask, dimensionMask,
+                needsFullCheck, Map.copyOf(dimensionBits));
+    }
+
+    private static int presenceBit(@Nullable Boolean required, int bit) {
+        return required != null ? bit : 0;
+    }
+
+    private static int valueBit(@Nullable Boolean required, int bit) {
+        return Boolean.TRUE.equals(required) ? bit : 0;
+    }
+
+    /**
+     * ディメンションのリストをビットの集合にします。ビットが足りない場合は 0 を返します。
+     */
+    private static long dimensionMask(List<String> dimensions, Map<String, Integer> dimensionBits) {
+        // 要素が全て null の場合はどのディメンションにも一致しない
+        long mask = DIMENSION_NEVER;
+        for (String dimension : dimensions) {
+            if (dimension == null) {
+                continue;
+            }
+            Integer bit = dimensionBits.get(dimension);
+            if (bit == null) {
+                if (dimensionBits.size() >= MAX_DIMENSION_BITS) {
+                    return 0;
+                }
+                bit = dimensionBits.size();
+                dimensionBits.put(dimension, bit);
+            }
+            mask |= 1L << bit;
+        }
+        return mask;
+    }
+
+    private static int weatherMask(@Nullable List<String> weather) {
+        if (!isPresent(weather)) {
+            return 0;
+        }
+        int mask = WEATHER_NEVER;
+        for (String value : weather) {
+            if (value == null) {
+                continue;
+            }
+            switch (value.toLowerCase(Locale.ROOT)) {
+                case "clear" -> mask |= WEATHER_CLEAR;
+                case "rain" -> mask |= WEATHER_RAIN;
+                case "thunder" -> mask |= WEATHER_THUNDER;
+                default -> LOGGER.warn("Unknown weather condition '{}' in definition list {}", value, weather);
+            }
+        }
+        return mask;
+    }
+
+    private static boolean isPresent(@Nullable List<String> values) {
+        return values != null && !values.isEmpty();
+    }
+
+    /**
+     * 現在の天候をビットで返します。雨も雷もなければ晴れです (雷雨の時は雨と雷の両方が立ちます)。
+     */
+    public static int currentWeather(boolean raining, boolean thundering) {
+        int weather = 0;
+        if (raining) {
+            weather |= WEATHER_RAIN;
+        }
+        if (thundering) {
+            weather |= WEATHER_THUNDER;
+        }
+        return weather == 0 ? WEATHER_CLEAR : weather;
+    }
+
+    /**
+     * 現在のディメンションに対応するビットを返します。どの定義にも現れないディメンションは 0 です。
+     */
+    public long dimensionBit(@Nullable String dimensionId) {
+        if (dimensionId == null) {
+            return 0;
+        }
+        Integer bit = this.dimensionBits.get(dimensionId);
+        return bit == null ? 0 : 1L << bit;
+    }
+
+    /**
+     * 条件を満たす最初の (最も優先度の高い) 定義を返します。
+     *
+     * @param state     現在の状態 (STATE_* の組み合わせ)
+     * @param weather   現在の天候 ({@link #currentWeather})
+     * @param altitude  プレイヤーの高さ
+     * @param dimension 現在のディメンションのビット ({@link #dimensionBit})
+     * @param fullCheck 配列で判定できない条件を持つ定義の判定
+     */
+    @Nullable
+    public MusicDefinition findFirstMatch(int state, int weather, double altitude, long dimension,
+                                          Predicate<MusicDefinition> fullCheck) {
+        int index = nextCandidate(0, state, weather, altitude, dimension);
+        while (index >= 0) {
+            MusicDefinition definition = this.definitions[index];
+            if (!this.needsFullCheck[index] || fullCheck.test(definition)) {
+                return definition;
+            }
+            index = nextCandidate(index + 1, state, weather, altitude, dimension);
+        }
+        return null;
+    }
+
+    /**
+     * {@code from} 以降で、配列で判定できる条件を全て満たす最初の添字を返します。なければ -1 です。
+     */
+    private int nextCandidate(int from, int state, int weather, double altitude, long dimension) {
+        for (int i = from; i < this.definitions.length; i++) {
+            if (altitude < this.minY[i] || altitude > this.maxY[i]) {
+                continue;
+            }
+            if (((state ^ this.requiredValue[i]) & this.requiredSet[i]) != 0) {
+                continue;
+            }
+            int requiredWeather = this.weatherMask[i];
+            if (requiredWeather != 0 && (requiredWeather & weather) == 0) {
+                continue;
+            }
+            long requiredDimension = this.dimensionMask[i];
+            if (requiredDimension != 0 && (requiredDimension & dimension) == 0) {
+                continue;
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    public int size() {
+        return this.definitions.length;
+    }
+}
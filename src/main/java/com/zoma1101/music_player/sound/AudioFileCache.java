@@ -0,0 +1,209 @@
+package com.zoma1101.music_player.sound;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import com.mojang.logging.LogUtils;
+import com.zoma1101.music_player.Music_Player;
+import com.zoma1101.music_player.util.WriteBehindFileWriter;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * OGG ファイルについて調べた結果 (内容のハッシュとヘッダーの情報) を、パックのソース・パス・サイズ・更新日時をキーにしてディスクに保存するキャッシュ。
+ * 起動の度に全てのファイルを読み直さないようにするために使います。ファイルが変わった場合はそのエントリを全て調べ直します。
+ */
+class AudioFileCache {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    private static final Path CACHE_FILE = Paths.get("cache", Music_Player.MOD_ID, "audio_files.json");
+    private static final Type CACHE_TYPE = new TypeToken<TreeMap<String, Entry>>() {}.getType();
+    // OggInfo の読み取り方を変えた時に増やす。古い方法で読んだ結果は読み直す
+    private static final int INFO_VERSION = 2;
+
+    private final Gson gson;
+    private final WriteBehindFileWriter writer;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private volatile boolean loaded = false;
+    private volatile boolean dirty = false;
+
+    AudioFileCache(Gson gson, WriteBehindFileWriter writer) {
+        this.gson = gson;
+        this.writer = writer;
+    }
+
+    /**
+     * OGG の内容のハッシュ (SHA-256) を返します。キャッシュにあり、ファイルが変わっていなければファイルは読みません。
+     * 読み込めなかった場合は null です。複数のスレッドから同時に呼び出すことができます。
+     */
+    @Nullable
+    String getOrComputeHash(PackResourceHandle handle, PackArchivePool archivePool) {
+        ensureLoaded();
+        String key = key(handle.entry());
+        long modified = handle.modified();
+        Entry cached = current(key, handle.size(), modified);
+        if (cached != null && cached.sha256 != null) {
+            return cached.sha256;
+        }
+
+        Hasher hasher = Hashing.sha256().newHasher();
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = handle.open(archivePool)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                hasher.putBytes(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Failed to hash sound file {}: {}", handle.entry(), e.getMessage());
+            return null;
+        }
+        String sha256 = hasher.hash().toString();
+        update(key, handle.size(), modified, entry -> entry.sha256 = sha256);
+        return sha256;
+    }
+
+    /**
+     * OGG のヘッダーの情報を返します。キャッシュにあり、ファイルが変わっていなければファイルは読みません。
+     * 読み込めなかった場合は null です。複数のスレッドから同時に呼び出すことができます。
+     */
+    @Nullable
+    OggInfo getOrReadInfo(PackResourceHandle handle, PackArchivePool archivePool) {
+        ensureLoaded();
+        String key = key(handle.entry());
+        long modified = handle.modified();
+        Entry cached = current(key, handle.size(), modified);
+        if (cached != null && cached.hasInfo && cached.infoVersion == INFO_VERSION) {
+            return new OggInfo(cached.channels, cached.sampleRate, cached.totalSamples, cached.error);
+        }
+
+        OggInfo info;
+        try (InputStream in = handle.open(archivePool)) {
+            info = OggInfo.read(in, handle.size());
+        } catch (IOException e) {
+            LOGGER.warn("Failed to read the header of sound file {}: {}", handle.entry(), e.getMessage());
+            return null;
+        }
+        update(key, handle.size(), modified, entry -> {
+            entry.hasInfo = true;
+            entry.infoVersion = INFO_VERSION;
+            entry.channels = info.channels();
+            entry.sampleRate = info.sampleRate();
+            entry.totalSamples = info.totalSamples();
+            entry.error = info.error();
+        });
+        return info;
+    }
+
+    /**
+     * 変更があれば書き込みを予約します。
+     */
+    void save() {
+        if (!this.dirty) {
+            return;
+        }
+        this.dirty = false;
+        this.writer.write(CACHE_FILE, this.gson.toJson(new TreeMap<>(this.entries), CACHE_TYPE));
+    }
+
+    @Nullable
+    private Entry current(String key, long size, long modified) {
+        Entry cached = this.entries.get(key);
+        return cached != null && cached.size == size && cached.modified == modified ? cached : null;
+    }
+
+    /**
+     * エントリを置き換えます。ファイルが変わっていた場合は、以前に調べた結果を引き継がずに新しいエントリを作ります。
+     */
+    private void update(String key, long size, long modified, Consumer<Entry> change) {
+        this.entries.compute(key, (k, previous) -> {
+            Entry entry = previous != null && previous.size == size && previous.modified == modified
+                    ? previous.copy()
+                    : new Entry(size, modified);
+            change.accept(entry);
+            return entry;
+        });
+        this.dirty = true;
+    }
+
+    private void ensureLoaded() {
+        if (this.loaded) {
+            return;
+        }
+        synchronized (this) {
+            if (this.loaded) {
+                return;
+            }
+            if (Files.isRegularFile(CACHE_FILE)) {
+                try {
+                    String content = Files.readString(CACHE_FILE, StandardCharsets.UTF_8);
+                    this.writer.markPersisted(CACHE_FILE, content);
+                    Map<String, Entry> parsed = this.gson.fromJson(content, CACHE_TYPE);
+                    if (parsed != null) {
+                        parsed.forEach((key, entry) -> {
+                            if (key != null && entry != null) {
+                                this.entries.put(key, entry);
+                            }
+                        });
+                    }
+                    LOGGER.debug("Loaded {} cached audio file entries from {}", this.entries.size(), CACHE_FILE);
+                } catch (IOException | JsonParseException e) {
+                    LOGGER.warn("Ignoring unreadable audio file cache {}: {}", CACHE_FILE, e.getMessage());
+                }
+            }
+            this.loaded = true;
+        }
+    }
+
+    private static String key(PackEntryRef ref) {
+        return ref.sourcePath().toAbsolutePath().normalize() + "!/" + ref.entryPath();
+    }
+
+    private static final class Entry {
+        long size;
+        long modified;
+        @Nullable
+        String sha256;
+        // --- OggInfo (hasInfo が true の場合のみ有効) ---
+        boolean hasInfo;
+        int infoVersion;
+        int channels;
+        int sampleRate;
+        long totalSamples;
+        @Nullable
+        String error;
+
+        // Gsonのためのデフォルトコンストラクタ
+        private Entry() {
+        }
+
+        Entry(long size, long modified) {
+            this.size = size;
+            this.modified = modified;
+        }
+
+        Entry copy() {
+            Entry copy = new Entry(this.size, this.modified);
+            copy.sha256 = this.sha256;
+            copy.hasInfo = this.hasInfo;
+            copy.infoVersion = this.infoVersion;
+            copy.channels = this.channels;
+            copy.sampleRate = this.sampleRate;
+            copy.totalSamples = this.totalSamples;
+            copy.error = this.error;
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.zoma1101.music_player.sound;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * パックの条件定義がヒープ上で使うおおよそのバイト数の見積もり。
+ * 読み込んだ JSON のままの形 (ボックス化した値と定義ごとの ArrayList) と、コンパクトな {@link MusicDefinition} を比べてログに出すために使います。
+ * 64bit JVM で参照が圧縮されている前提の概算で、両方の形に共通するキーやエントリ参照は含めません。
+ */
+class DefinitionFootprint {
+    private static final int OBJECT_HEADER = 12;
+    private static final int ARRAY_HEADER = 16;
+    private static final int REFERENCE = 4;
+    private static final int BOXED_VALUE = 16;
+    // JSON の入れ物のフィールド: int 1つと参照17個 (旧 MusicDefinition と同じ並び)
+    private static final int PARSED_INSTANCE = align(OBJECT_HEADER + 4 + 17 * REFERENCE);
+    // コンパクトな形のフィールド: int 2つ、double 1つと参照11個
+    private static final int COMPILED_INSTANCE = align(OBJECT_HEADER + 4 + 4 + 8 + 11 * REFERENCE);
+
+    // 共有されている文字列やリストは一度だけ数える
+    private final Set<Object> countedShared = Collections.newSetFromMap(new IdentityHashMap<>());
+    private int definitions;
+    private long parsedBytes;
+    private long compiledBytes;
+
+    void addParsed(MusicDefinitionJson json) {
+        long bytes = PARSED_INSTANCE;
+        bytes += string(json.musicFileInPack);
+        bytes += arrayList(json.biomes) + arrayList(json.weather) + arrayList(json.dimensions) + arrayList(json.entityConditions);
+        bytes += string(json.guiScreen);
+        // Boolean は共有の定数なので数えない。Integer は -128..127 がキャッシュされる
+        bytes += boxedInt(json.minY) + boxedInt(json.maxY) + boxedInt(json.minCount) + boxedInt(json.maxCount)
+                + boxedInt(json.fadeInTicks) + boxedInt(json.fadeOutTicks);
+        bytes += json.radius != null ? BOXED_VALUE : 0;
+        this.parsedBytes += bytes;
+    }
+
+    void addCompiled(MusicDefinition definition) {
+        long bytes = COMPILED_INSTANCE;
+        bytes += string(definition.getMusicFileInPack());
+        bytes += sharedList(definition.getBiomes()) + sharedList(definition.getWeather())
+                + sharedList(definition.getDimensions()) + sharedList(definition.getEntityConditions());
+        bytes += sharedString(definition.getGuiScreen());
+        if (definition.getIntValueCount() > 0) {
+            bytes += align(ARRAY_HEADER + 4L * definition.getIntValueCount());
+        }
+        this.compiledBytes += bytes;
+        this.definitions++;
+    }
+
+    int getDefinitions() {
+        return this.definitions;
+    }
+
+    long getParsedBytes() {
+        return this.parsedBytes;
+    }
+
+    long getCompiledBytes() {
+        return this.compiledBytes;
+    }
+
+    int getSavedPercent() {
+        return this.parsedBytes <= 0 ? 0 : (int) (100 - this.compiledBytes * 100 / this.parsedBytes);
+    }
+
+    private long sharedList(@Nullable List<String> values) {
+        if (values == null || values.isEmpty() || !this.countedShared.add(values)) {
+            return 0;
+        }
+        // unmodifiableList + Arrays.asList + 配列
+        long bytes = align(OBJECT_HEADER + 2L * REFERENCE) + align(OBJECT_HEADER + REFERENCE)
+                + align(ARRAY_HEADER + (long) REFERENCE * values.size());
+        for (String value : values) {
+            bytes += sharedString(value);
+        }
+        return bytes;
+    }
+
+    private long sharedString(@Nullable String value) {
+        if (value == null || !this.countedShared.add(value)) {
+            return 0;
+        }
+        return string(value);
+    }
+
+    private static long arrayList(@Nullable List<String> values) {
+        if (values == null) {
+            return 0;
+        }
+        // Gson は ArrayList を作る (最初の要素の追加で容量10の配列を確保する)
+        long bytes = align(OBJECT_HEADER + 4 + 4 + REFERENCE);
+        if (!values.isEmpty()) {
+            bytes += align(ARRAY_HEADER + (long) REFERENCE * Math.max(10, values.size()));
+        }
+        for (String value : values) {
+            bytes += string(value);
+        }
+        return bytes;
+    }
+
+    private static long boxedInt(@Nullable Integer value) {
+        return value != null && (value < -128 || value > 127) ? BOXED_VALUE : 0;
+    }
+
+    private static long string(@Nullable String value) {
+        if (value == null) {
+            return 0;
+        }
+        boolean latin1 = value.chars().allMatch(c -> c < 256);
+        // String 本体 (hash, coder などを含む) + 中身の byte[]
+        return align(OBJECT_HEADER + 4 + 1 + 1 + REFERENCE) + align(ARRAY_HEADER + (long) value.length() * (latin1 ? 1 : 2));
+    }
+
+    private static int align(long bytes) {
+        return (int) ((bytes + 7) & ~7L);
+    }
+}
@@ -0,0 +1,48 @@
+package com.zoma1101.music_player.sound;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 条件定義の文字列とリストを共有するための表。
+ * 大きなパックでは同じバイオーム名や同じバイオームのリストが何千もの定義に現れるので、
+ * 同じ内容のものは一つのインスタンスにまとめます。パックを読み込み直す度に作り直します。
+ */
+class DefinitionInterner {
+    private final Map<String, String> strings = new ConcurrentHashMap<>();
+    private final Map<List<String>, List<String>> lists = new ConcurrentHashMap<>();
+
+    @Nullable
+    String intern(@Nullable String value) {
+        if (value == null) {
+            return null;
+        }
+        String existing = this.strings.putIfAbsent(value, value);
+        return existing != null ? existing : value;
+    }
+
+    /**
+     * 変更できない共有のリストを返します。要素の null はそのまま残します (妥当性の判定で使うため)。
+     */
+    @Nullable
+    List<String> intern(@Nullable List<String> values) {
+        if (values == null) {
+            return null;
+        }
+        if (values.isEmpty()) {
+            return List.of();
+        }
+        String[] elements = new String[values.size()];
+        for (int i = 0; i < elements.length; i++) {
+            elements[i] = intern(values.get(i));
+        }
+        List<String> interned = Collections.unmodifiableList(Arrays.asList(elements));
+        List<String> existing = this.lists.putIfAbsent(interned, interned);
+        return existing != null ? existing : interned;
+    }
+}
@@ -0,0 +1,79 @@
+package com.zoma1101.music_player.sound;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * ディレクトリ形式のサウンドパック。ファイルシステムを直接参照します。
+ */
+public class DirectoryPackContainer implements PackContainer {
+    private final Path root;
+
+    public DirectoryPackContainer(Path root) {
+        this.root = root;
+    }
+
+    private Path resolve(String entryPath) {
+        return this.root.resolve(PackEntryRef.normalize(entryPath));
+    }
+
+    @Override
+    public boolean isFile(String entryPath) {
+        return Files.isRegularFile(resolve(entryPath));
+    }
+
+    @Override
+    public boolean isDirectory(String dirPath) {
+        return Files.isDirectory(resolve(dirPath));
+    }
+
+    @Override
+    public List<String> listChildDirectories(String dirPath) throws IOException {
+        try (Stream<Path> stream = Files.list(resolve(dirPath))) {
+            return stream
+                    .filter(Files::isDirectory)
+                    .map(path -> path.getFileName().toString())
+                    .collect(Collectors.toList());
+        }
+    }
+
+    @Override
+    public List<String> listFiles(String dirPath) throws IOException {
+        try (Stream<Path> stream = Files.walk(resolve(dirPath))) {
+            return stream
+                    .filter(Files::isRegularFile)
+                    .map(path -> this.root.relativize(path).toString().replace('\\', '/'))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    @Override
+    public long size(String entryPath) {
+        try {
+            Path path = resolve(entryPath);
+            return Files.isRegularFile(path) ? Files.size(path) : -1;
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public InputStream open(String entryPath) throws IOException {
+        return Files.newInputStream(resolve(entryPath));
+    }
+
+    @Override
+    public boolean isOpen() {
+        return true;
+    }
+
+    @Override
+    public void close() {
+        // ディレクトリは何も保持していない
+    }
+}
@@ -0,0 +1,207 @@
+package com.zoma1101.music_player.sound;
+
+import com.zoma1101.music_player.util.ByteBufferInputStream;
+import com.zoma1101.music_player.util.MappedFile;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * 索引付きの単一ファイルのサウンドパック ({@value #FILE_EXTENSION}) のリーダー。
+ * ファイル全体を一度メモリマップし、先頭の索引を読むだけで開けます。エントリは全て無圧縮なので、
+ * ストリームはマップ領域のスライスをコピーせずに返します。
+ * <p>
+ * レイアウト (リトルエンディアン):
+ * <pre>
+ * ヘッダー   : magic(int) version(int) pageSize(int) entryCount(int) indexLength(int) reserved(int)
+ * 索引       : 名前の昇順に [nameLength(u16) name(UTF-8) offset(int) length(int)] を entryCount 個
+ * メタデータ : pack.mcmeta・pack.png・条件定義などの小さなエントリを詰めて配置
+ * 音声       : OGG ファイルをそれぞれ pageSize の境界から配置
+ * </pre>
+ * 書き出しは {@link IndexedPackWriter} で行います。
+ */
+public class IndexedPackArchive implements PackContainer {
+    public static final String FILE_EXTENSION = ".mpack";
+    static final int MAGIC = 0x4B41504D; // "MPAK"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 24;
+
+    private final Path path;
+    private final MappedFile file;
+    // インデックスは名前でソートされた並列配列
+    private final String[] names;
+    private final int[] offsets;
+    private final int[] lengths;
+
+    private IndexedPackArchive(Path path, MappedFile file, String[] names, int[] offsets, int[] lengths) {
+        this.path = path;
+        this.file = file;
+        this.names = names;
+        this.offsets = offsets;
+        this.lengths = lengths;
+    }
+
+    public static boolean isIndexedPackFile(Path path) {
+        return path.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(FILE_EXTENSION);
+    }
+
+    public static IndexedPackArchive open(Path path) throws IOException {
+        MappedFile file = MappedFile.map(path);
+        try {
+            if (file.buffer().limit() < HEADER_SIZE) {
+                throw new IOException("Not an indexed sound pack (too small): " + path);
+            }
+            return parseIndex(path, file);
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    private static IndexedPackArchive parseIndex(Path path, MappedFile file) throws IOException {
+        ByteBuffer buffer = file.buffer();
+        if (buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not an indexed sound pack (bad magic): " + path);
+        }
+        int version = buffer.getInt(4);
+        if (version != VERSION) {
+            throw new IOException("Unsupported indexed sound pack version " + version + ": " + path);
+        }
+        int entryCount = buffer.getInt(12);
+        int indexLength = buffer.getInt(16);
+        if (entryCount < 0 || indexLength < 0 || HEADER_SIZE + (long) indexLength > buffer.limit()) {
+            throw new IOException("Invalid index bounds in indexed sound pack: " + path);
+        }
+
+        String[] names = new String[entryCount];
+        int[] offsets = new int[entryCount];
+        int[] lengths = new int[entryCount];
+        int pos = HEADER_SIZE;
+        int end = HEADER_SIZE + indexLength;
+        for (int i = 0; i < entryCount; i++) {
+            if (pos + 2 > end) {
+                throw new IOException("Truncated index in indexed sound pack: " + path);
+            }
+            int nameLength = buffer.getShort(pos) & 0xFFFF;
+            if (pos + 2 + nameLength + 8 > end) {
+                throw new IOException("Truncated index in indexed sound pack: " + path);
+            }
+            byte[] nameBytes = new byte[nameLength];
+            buffer.get(pos + 2, nameBytes);
+            names[i] = new String(nameBytes, StandardCharsets.UTF_8);
+            offsets[i] = buffer.getInt(pos + 2 + nameLength);
+            lengths[i] = buffer.getInt(pos + 2 + nameLength + 4);
+            if (offsets[i] < 0 || lengths[i] < 0 || (long) offsets[i] + lengths[i] > buffer.limit()) {
+                throw new IOException("Entry " + names[i] + " is out of bounds in indexed sound pack: " + path);
+            }
+            if (i > 0 && names[i - 1].compareTo(names[i]) >= 0) {
+                throw new IOException("Index is not sorted in indexed sound pack: " + path);
+            }
+            pos += 2 + nameLength + 8;
+        }
+        return new IndexedPackArchive(path, file, names, offsets, lengths);
+    }
+
+    private int indexOf(String entryPath) {
+        int index = Arrays.binarySearch(this.names, PackEntryRef.normalize(entryPath));
+        return index >= 0 ? index : -1;
+    }
+
+    /**
+     * 指定したプレフィックスで始まる最初のエントリのインデックスを返します。
+     */
+    private int lowerBound(String prefix) {
+        int index = Arrays.binarySearch(this.names, prefix);
+        return index >= 0 ? index : -(index + 1);
+    }
+
+    private static String directoryPrefix(String dirPath) {
+        String normalized = PackEntryRef.normalize(dirPath);
+        return normalized.isEmpty() ? "" : normalized + "/";
+    }
+
+    public Path getPath() {
+        return this.path;
+    }
+
+    public int getEntryCount() {
+        return this.names.length;
+    }
+
+    @Override
+    public boolean isFile(String entryPath) {
+        return indexOf(entryPath) >= 0;
+    }
+
+    @Override
+    public boolean isDirectory(String dirPath) {
+        String prefix = directoryPrefix(dirPath);
+        int index = lowerBound(prefix);
+        return index < this.names.length && this.names[index].startsWith(prefix);
+    }
+
+    @Override
+    public List<String> listChildDirectories(String dirPath) {
+        String prefix = directoryPrefix(dirPath);
+        Set<String> children = new LinkedHashSet<>();
+        for (int i = lowerBound(prefix); i < this.names.length && this.names[i].startsWith(prefix); i++) {
+            String rest = this.names[i].substring(prefix.length());
+            int slash = rest.indexOf('/');
+            if (slash > 0) {
+                children.add(rest.substring(0, slash));
+            }
+        }
+        return new ArrayList<>(children);
+    }
+
+    @Override
+    public List<String> listFiles(String dirPath) {
+        String prefix = directoryPrefix(dirPath);
+        List<String> files = new ArrayList<>();
+        for (int i = lowerBound(prefix); i < this.names.length && this.names[i].startsWith(prefix); i++) {
+            files.add(this.names[i]);
+        }
+        return files;
+    }
+
+    @Override
+    public long size(String entryPath) {
+        int index = indexOf(entryPath);
+        return index >= 0 ? this.lengths[index] : -1;
+    }
+
+    @Override
+    public InputStream open(String entryPath) throws IOException {
+        int index = indexOf(entryPath);
+        if (index < 0) {
+            throw new FileNotFoundException(entryPath + " in " + this.path);
+        }
+        return this.file.openStream(buffer -> new ByteBufferInputStream(buffer.slice(this.offsets[index], this.lengths[index])));
+    }
+
+    @Override
+    public boolean isOpen() {
+        return this.file.isOpen();
+    }
+
+    @Override
+    public void close() {
+        // 読み出し中のストリームが無ければここでアンマップされ、あれば最後のストリームが閉じられた時点でアンマップされる
+        this.file.close();
+    }
+
+    @Override
+    public String toString() {
+        return "IndexedPackArchive{" + this.path + ", entries=" + this.names.length + "}";
+    }
+}
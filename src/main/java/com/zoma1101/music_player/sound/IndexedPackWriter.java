@@ -0,0 +1,220 @@
+package com.zoma1101.music_player.sound;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * ディレクトリ/ZIP のサウンドパックを索引付きの単一ファイル ({@link IndexedPackArchive}) に変換するオフラインの変換ツール。
+ * OGG 以外の小さなエントリは索引の直後に詰めて配置し、OGG はそれぞれページ境界から無圧縮で配置します。
+ * <p>
+ * 使い方: {@code IndexedPackWriter <パックのディレクトリまたは.zip> [出力先.mpack]}
+ */
+public final class IndexedPackWriter {
+    public static final int DEFAULT_PAGE_SIZE = 4096;
+    private static final int COPY_BUFFER_SIZE = 256 * 1024;
+
+    private IndexedPackWriter() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: IndexedPackWriter <pack directory or .zip> [output" + IndexedPackArchive.FILE_EXTENSION + "]");
+            System.exit(2);
+            return;
+        }
+        Path source = Paths.get(args[0]);
+        Path target = args.length > 1 ? Paths.get(args[1]) : defaultTarget(source);
+        Summary summary = convert(source, target);
+        System.out.printf(Locale.ROOT, "Wrote %s: %d entries (%d audio), %d bytes%n",
+                target, summary.entries(), summary.audioEntries(), summary.fileSize());
+    }
+
+    /**
+     * 変換元と同じ場所に、拡張子を {@value IndexedPackArchive#FILE_EXTENSION} にしたパスを返します。
+     */
+    public static Path defaultTarget(Path source) {
+        String fileName = source.getFileName().toString();
+        if (!Files.isDirectory(source) && fileName.contains(".")) {
+            fileName = fileName.substring(0, fileName.lastIndexOf('.'));
+        }
+        return source.resolveSibling(fileName + IndexedPackArchive.FILE_EXTENSION);
+    }
+
+    /**
+     * パックを変換します。書き込みは一時ファイルに行い、完了してから {@code target} を置き換えます。
+     */
+    public static Summary convert(Path source, Path target) throws IOException {
+        try (PackContainer container = Files.isDirectory(source)
+                ? new DirectoryPackContainer(source)
+                : MappedZipArchive.open(source)) {
+            return write(container, target, DEFAULT_PAGE_SIZE);
+        }
+    }
+
+    public static Summary write(PackContainer container, Path target, int pageSize) throws IOException {
+        return write(container, Map.of(), target, pageSize);
+    }
+
+    /**
+     * パックの中身に {@code extraEntries} を加えて書き出します。同じ名前のエントリは {@code extraEntries} の内容で置き換えます。
+     */
+    public static Summary write(PackContainer container, Map<String, byte[]> extraEntries, Path target, int pageSize) throws IOException {
+        if (pageSize <= 0 || Integer.bitCount(pageSize) != 1) {
+            throw new IllegalArgumentException("Page size must be a power of two: " + pageSize);
+        }
+        Set<String> nameSet = new TreeSet<>(container.listFiles(""));
+        nameSet.addAll(extraEntries.keySet());
+        List<String> names = new ArrayList<>(nameSet);
+
+        // 索引の大きさを求め、メタデータ → 音声の順にオフセットを割り当てる
+        int count = names.size();
+        byte[][] nameBytes = new byte[count][];
+        long[] sizes = new long[count];
+        long indexLength = 0;
+        for (int i = 0; i < count; i++) {
+            nameBytes[i] = names.get(i).getBytes(StandardCharsets.UTF_8);
+            if (nameBytes[i].length > 0xFFFF) {
+                throw new IOException("Entry name is too long: " + names.get(i));
+            }
+            byte[] extra = extraEntries.get(names.get(i));
+            sizes[i] = extra != null ? extra.length : container.size(names.get(i));
+            if (sizes[i] < 0) {
+                throw new IOException("Entry disappeared while converting: " + names.get(i));
+            }
+            indexLength += 2 + nameBytes[i].length + 8;
+        }
+        long[] offsets = new long[count];
+        long position = IndexedPackArchive.HEADER_SIZE + indexLength;
+        int audioEntries = 0;
+        for (int i = 0; i < count; i++) {
+            if (!isAudio(names.get(i))) {
+                offsets[i] = position;
+                position += sizes[i];
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            if (isAudio(names.get(i))) {
+                position = alignUp(position, pageSize);
+                offsets[i] = position;
+                position += sizes[i];
+                audioEntries++;
+            }
+        }
+        long fileSize = position;
+        if (fileSize > Integer.MAX_VALUE) {
+            throw new IOException("Pack is too large for the indexed format (" + fileSize + " bytes)");
+        }
+
+        ByteBuffer header = ByteBuffer.allocate((int) (IndexedPackArchive.HEADER_SIZE + indexLength)).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(IndexedPackArchive.MAGIC);
+        header.putInt(IndexedPackArchive.VERSION);
+        header.putInt(pageSize);
+        header.putInt(count);
+        header.putInt((int) indexLength);
+        header.putInt(0);
+        for (int i = 0; i < count; i++) {
+            header.putShort((short) nameBytes[i].length);
+            header.put(nameBytes[i]);
+            header.putInt((int) offsets[i]);
+            header.putInt((int) sizes[i]);
+        }
+        header.flip();
+
+        Path parent = target.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path tempFile = Files.createTempFile(parent, target.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                writeFully(channel, header);
+                // オフセット順に書き、隙間はゼロで埋める
+                Integer[] order = new Integer[count];
+                for (int i = 0; i < count; i++) {
+                    order[i] = i;
+                }
+                Arrays.sort(order, (a, b) -> Long.compare(offsets[a], offsets[b]));
+                byte[] buffer = new byte[COPY_BUFFER_SIZE];
+                for (int index : order) {
+                    padTo(channel, offsets[index]);
+                    byte[] extra = extraEntries.get(names.get(index));
+                    if (extra != null) {
+                        writeFully(channel, ByteBuffer.wrap(extra));
+                    } else {
+                        copyEntry(container, names.get(index), sizes[index], channel, buffer);
+                    }
+                }
+            }
+            try {
+                Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+        return new Summary(count, audioEntries, fileSize);
+    }
+
+    private static void copyEntry(PackContainer container, String name, long expectedSize, FileChannel channel, byte[] buffer) throws IOException {
+        long copied = 0;
+        try (InputStream in = container.open(name)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                if (copied + read > expectedSize) {
+                    throw new IOException("Entry is larger than its recorded size: " + name);
+                }
+                writeFully(channel, ByteBuffer.wrap(buffer, 0, read));
+                copied += read;
+            }
+        }
+        if (copied != expectedSize) {
+            throw new IOException("Entry is smaller than its recorded size: " + name);
+        }
+    }
+
+    private static void padTo(FileChannel channel, long offset) throws IOException {
+        long padding = offset - channel.position();
+        if (padding < 0) {
+            throw new IllegalStateException("Entries overlap at offset " + offset);
+        }
+        if (padding > 0) {
+            writeFully(channel, ByteBuffer.allocate((int) padding));
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static boolean isAudio(String name) {
+        return name.toLowerCase(Locale.ROOT).endsWith(".ogg");
+    }
+
+    private static long alignUp(long value, int alignment) {
+        return (value + alignment - 1) & -(long) alignment;
+    }
+
+    /**
+     * 変換結果の概要。
+     */
+    public record Summary(int entries, int audioEntries, long fileSize) {
+    }
+}
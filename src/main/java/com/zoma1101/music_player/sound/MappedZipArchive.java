@@ -0,0 +1,389 @@
+package com.zoma1101.music_player.sound;
+
+import com.zoma1101.music_player.util.ByteBufferInputStream;
+import com.zoma1101.music_player.util.MappedFile;
+
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * ZIPファイルをメモリマップし、セントラルディレクトリだけを解析してコンパクトなソート済みインデックスを持つ軽量リーダー。
+ * STORED エントリはマップ領域のスライスとしてコピーなしで返し、DEFLATED エントリはその場で展開します。
+ * <p>
+ * マッピングはファイルを開いた直後にチャネルを閉じるため、ファイルディスクリプタは保持しません。
+ * 返したストリームはマッピングを参照し続けるので、{@link #close()} 後も最後まで読み出せます。
+ * マッピングは {@link #close()} の後、全てのストリームが閉じられた時点で解放されます ({@link MappedFile})。
+ */
+public class MappedZipArchive implements PackContainer {
+    private static final int LOCAL_HEADER_SIG = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIG = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIR_SIG = 0x06054b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIR_SIG = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIG = 0x07064b50;
+    private static final int END_OF_CENTRAL_DIR_SIZE = 22;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+
+    private final Path path;
+    private final MappedFile file;
+    private final ByteBuffer mapping;
+    // インデックスは名前でソートされた並列配列 (エントリ1つあたりオブジェクト1つ = 名前の String のみ)
+    private final String[] names;
+    private final int[] headerOffsets;
+    private final int[] compressedSizes;
+    private final int[] uncompressedSizes;
+    private final short[] methods;
+
+    private MappedZipArchive(Path path, MappedFile file, String[] names, int[] headerOffsets,
+                             int[] compressedSizes, int[] uncompressedSizes, short[] methods) {
+        this.path = path;
+        this.file = file;
+        this.mapping = file.buffer();
+        this.names = names;
+        this.headerOffsets = headerOffsets;
+        this.compressedSizes = compressedSizes;
+        this.uncompressedSizes = uncompressedSizes;
+        this.methods = methods;
+    }
+
+    public static MappedZipArchive open(Path path) throws IOException {
+        MappedFile file = MappedFile.map(path);
+        try {
+            if (file.buffer().limit() < END_OF_CENTRAL_DIR_SIZE) {
+                throw new ZipException("Not a ZIP file (too small): " + path);
+            }
+            return parseCentralDirectory(path, file);
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    private static MappedZipArchive parseCentralDirectory(Path path, MappedFile file) throws IOException {
+        ByteBuffer buffer = file.buffer();
+        int eocd = findEndOfCentralDirectory(buffer);
+        if (eocd < 0) {
+            throw new ZipException("End of central directory record not found: " + path);
+        }
+        long entryCount = buffer.getShort(eocd + 10) & 0xFFFF;
+        long cdSize = buffer.getInt(eocd + 12) & 0xFFFFFFFFL;
+        long cdOffset = buffer.getInt(eocd + 16) & 0xFFFFFFFFL;
+
+        // ZIP64 の場合は ZIP64 EOCD レコードの値を使う
+        if ((entryCount == 0xFFFF || cdSize == 0xFFFFFFFFL || cdOffset == 0xFFFFFFFFL) && eocd >= 20
+                && buffer.getInt(eocd - 20) == ZIP64_LOCATOR_SIG) {
+            long zip64Eocd = buffer.getLong(eocd - 20 + 8);
+            if (zip64Eocd < 0 || zip64Eocd + 56 > buffer.limit() || buffer.getInt((int) zip64Eocd) != ZIP64_END_OF_CENTRAL_DIR_SIG) {
+                throw new ZipException("Invalid ZIP64 end of central directory record: " + path);
+            }
+            entryCount = buffer.getLong((int) zip64Eocd + 32);
+            cdSize = buffer.getLong((int) zip64Eocd + 40);
+            cdOffset = buffer.getLong((int) zip64Eocd + 48);
+        }
+        if (cdOffset < 0 || cdSize < 0 || cdOffset + cdSize > buffer.limit() || entryCount > Integer.MAX_VALUE) {
+            throw new ZipException("Invalid central directory bounds: " + path);
+        }
+
+        List<RawEntry> entries = new ArrayList<>((int) Math.min(entryCount, 1 << 16));
+        int pos = (int) cdOffset;
+        int end = (int) (cdOffset + cdSize);
+        while (pos + 46 <= end && buffer.getInt(pos) == CENTRAL_HEADER_SIG) {
+            int flags = buffer.getShort(pos + 8) & 0xFFFF;
+            int method = buffer.getShort(pos + 10) & 0xFFFF;
+            long compressedSize = buffer.getInt(pos + 20) & 0xFFFFFFFFL;
+            long uncompressedSize = buffer.getInt(pos + 24) & 0xFFFFFFFFL;
+            int nameLength = buffer.getShort(pos + 28) & 0xFFFF;
+            int extraLength = buffer.getShort(pos + 30) & 0xFFFF;
+            int commentLength = buffer.getShort(pos + 32) & 0xFFFF;
+            long headerOffset = buffer.getInt(pos + 42) & 0xFFFFFFFFL;
+            if (pos + 46 + nameLength + extraLength > end) {
+                throw new ZipException("Truncated central directory entry: " + path);
+            }
+
+            byte[] nameBytes = new byte[nameLength];
+            buffer.get(pos + 46, nameBytes);
+            String name = PackEntryRef.normalize(new String(nameBytes, StandardCharsets.UTF_8));
+
+            // ZIP64 拡張フィールドで 0xFFFFFFFF の値を置き換える
+            if (compressedSize == 0xFFFFFFFFL || uncompressedSize == 0xFFFFFFFFL || headerOffset == 0xFFFFFFFFL) {
+                int extraPos = pos + 46 + nameLength;
+                int extraEnd = extraPos + extraLength;
+                while (extraPos + 4 <= extraEnd) {
+                    int id = buffer.getShort(extraPos) & 0xFFFF;
+                    int size = buffer.getShort(extraPos + 2) & 0xFFFF;
+                    if (id == ZIP64_EXTRA_ID) {
+                        int fieldPos = extraPos + 4;
+                        if (uncompressedSize == 0xFFFFFFFFL && fieldPos + 8 <= extraEnd) {
+                            uncompressedSize = buffer.getLong(fieldPos);
+                            fieldPos += 8;
+                        }
+                        if (compressedSize == 0xFFFFFFFFL && fieldPos + 8 <= extraEnd) {
+                            compressedSize = buffer.getLong(fieldPos);
+                            fieldPos += 8;
+                        }
+                        if (headerOffset == 0xFFFFFFFFL && fieldPos + 8 <= extraEnd) {
+                            headerOffset = buffer.getLong(fieldPos);
+                        }
+                        break;
+                    }
+                    extraPos += 4 + size;
+                }
+            }
+
+            boolean directory = name.isEmpty() || nameBytes.length > 0 && nameBytes[nameLength - 1] == '/';
+            boolean encrypted = (flags & 0x1) != 0;
+            if (!directory && !encrypted) {
+                if (compressedSize > Integer.MAX_VALUE || uncompressedSize > Integer.MAX_VALUE || headerOffset > Integer.MAX_VALUE) {
+                    throw new ZipException("Entry too large: " + name + " in " + path);
+                }
+                entries.add(new RawEntry(name, (int) headerOffset, (int) compressedSize, (int) uncompressedSize, (short) method));
+            }
+            pos += 46 + nameLength + extraLength + commentLength;
+        }
+
+        entries.sort(Comparator.comparing(RawEntry::name));
+        int count = entries.size();
+        String[] names = new String[count];
+        int[] headerOffsets = new int[count];
+        int[] compressedSizes = new int[count];
+        int[] uncompressedSizes = new int[count];
+        short[] methods = new short[count];
+        int unique = 0;
+        for (RawEntry entry : entries) {
+            if (unique > 0 && names[unique - 1].equals(entry.name())) {
+                continue; // 重複した名前は最初のものだけを使う
+            }
+            names[unique] = entry.name();
+            headerOffsets[unique] = entry.headerOffset();
+            compressedSizes[unique] = entry.compressedSize();
+            uncompressedSizes[unique] = entry.uncompressedSize();
+            methods[unique] = entry.method();
+            unique++;
+        }
+        if (unique != count) {
+            names = Arrays.copyOf(names, unique);
+            headerOffsets = Arrays.copyOf(headerOffsets, unique);
+            compressedSizes = Arrays.copyOf(compressedSizes, unique);
+            uncompressedSizes = Arrays.copyOf(uncompressedSizes, unique);
+            methods = Arrays.copyOf(methods, unique);
+        }
+        return new MappedZipArchive(path, file, names, headerOffsets, compressedSizes, uncompressedSizes, methods);
+    }
+
+    private static int findEndOfCentralDirectory(ByteBuffer buffer) {
+        int last = buffer.limit() - END_OF_CENTRAL_DIR_SIZE;
+        int first = Math.max(0, last - 0xFFFF); // コメントは最大 65535 バイト
+        for (int pos = last; pos >= first; pos--) {
+            if (buffer.getInt(pos) == END_OF_CENTRAL_DIR_SIG) {
+                return pos;
+            }
+        }
+        return -1;
+    }
+
+    private int indexOf(String entryPath) {
+        int index = Arrays.binarySearch(this.names, PackEntryRef.normalize(entryPath));
+        return index >= 0 ? index : -1;
+    }
+
+    /**
+     * 指定したプレフィックスで始まる最初のエントリのインデックスを返します。
+     */
+    private int lowerBound(String prefix) {
+        int index = Arrays.binarySearch(this.names, prefix);
+        return index >= 0 ? index : -(index + 1);
+    }
+
+    private static String directoryPrefix(String dirPath) {
+        String normalized = PackEntryRef.normalize(dirPath);
+        return normalized.isEmpty() ? "" : normalized + "/";
+    }
+
+    public Path getPath() {
+        return this.path;
+    }
+
+    public int getEntryCount() {
+        return this.names.length;
+    }
+
+    @Override
+    public boolean isFile(String entryPath) {
+        return indexOf(entryPath) >= 0;
+    }
+
+    @Override
+    public boolean isDirectory(String dirPath) {
+        String prefix = directoryPrefix(dirPath);
+        int index = lowerBound(prefix);
+        return index < this.names.length && this.names[index].startsWith(prefix);
+    }
+
+    @Override
+    public List<String> listChildDirectories(String dirPath) {
+        String prefix = directoryPrefix(dirPath);
+        Set<String> children = new LinkedHashSet<>();
+        for (int i = lowerBound(prefix); i < this.names.length && this.names[i].startsWith(prefix); i++) {
+            String rest = this.names[i].substring(prefix.length());
+            int slash = rest.indexOf('/');
+            if (slash > 0) {
+                children.add(rest.substring(0, slash));
+            }
+        }
+        return new ArrayList<>(children);
+    }
+
+    @Override
+    public List<String> listFiles(String dirPath) {
+        String prefix = directoryPrefix(dirPath);
+        List<String> files = new ArrayList<>();
+        for (int i = lowerBound(prefix); i < this.names.length && this.names[i].startsWith(prefix); i++) {
+            files.add(this.names[i]);
+        }
+        return files;
+    }
+
+    @Override
+    public long size(String entryPath) {
+        int index = indexOf(entryPath);
+        return index >= 0 ? this.uncompressedSizes[index] : -1;
+    }
+
+    /**
+     * エントリの生データ（圧縮されている場合は圧縮データ）をマップ領域のスライスとして返します。
+     */
+    private ByteBuffer rawData(int index) throws IOException {
+        int header = this.headerOffsets[index];
+        if (header + 30 > this.mapping.limit() || this.mapping.getInt(header) != LOCAL_HEADER_SIG) {
+            throw new ZipException("Invalid local file header for " + this.names[index] + " in " + this.path);
+        }
+        int nameLength = this.mapping.getShort(header + 26) & 0xFFFF;
+        int extraLength = this.mapping.getShort(header + 28) & 0xFFFF;
+        int dataOffset = header + 30 + nameLength + extraLength;
+        int length = this.compressedSizes[index];
+        if (dataOffset + length > this.mapping.limit()) {
+            throw new ZipException("Truncated entry data for " + this.names[index] + " in " + this.path);
+        }
+        return this.mapping.slice(dataOffset, length);
+    }
+
+    @Override
+    public InputStream open(String entryPath) throws IOException {
+        int index = indexOf(entryPath);
+        if (index < 0) {
+            throw new FileNotFoundException(entryPath + " in " + this.path);
+        }
+        // ローカルヘッダーの読み込みもマッピングを保持した状態で行う
+        return this.file.openStream(buffer -> {
+            ByteBuffer data = rawData(index);
+            switch (this.methods[index]) {
+                case METHOD_STORED:
+                    return new ByteBufferInputStream(data);
+                case METHOD_DEFLATED:
+                    return new MappedInflaterInputStream(data, this.uncompressedSizes[index]);
+                default:
+                    throw new ZipException("Unsupported compression method " + this.methods[index] + " for " + entryPath + " in " + this.path);
+            }
+        });
+    }
+
+    @Override
+    public boolean isOpen() {
+        return this.file.isOpen();
+    }
+
+    @Override
+    public void close() {
+        // 読み出し中のストリームが無ければここでアンマップされ、あれば最後のストリームが閉じられた時点でアンマップされる
+        this.file.close();
+    }
+
+    @Override
+    public String toString() {
+        return "MappedZipArchive{" + this.path + ", entries=" + this.names.length + "}";
+    }
+
+    private record RawEntry(String name, int headerOffset, int compressedSize, int uncompressedSize, short method) {
+    }
+
+    /**
+     * マップ領域を直接 {@link Inflater} の入力として渡し、中間バッファなしで展開するストリーム。
+     */
+    private static final class MappedInflaterInputStream extends InputStream {
+        private final Inflater inflater = new Inflater(true);
+        private int remaining;
+        private boolean dummyByteSupplied = false;
+        private boolean closed = false;
+        private final byte[] single = new byte[1];
+
+        private MappedInflaterInputStream(ByteBuffer compressed, int uncompressedSize) {
+            this.inflater.setInput(compressed);
+            this.remaining = uncompressedSize;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return read(this.single, 0, 1) == -1 ? -1 : this.single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (this.closed) {
+                throw new IOException("Stream closed");
+            }
+            if (len == 0) {
+                return 0;
+            }
+            try {
+                while (true) {
+                    int n = this.inflater.inflate(b, off, len);
+                    if (n > 0) {
+                        this.remaining = Math.max(0, this.remaining - n);
+                        return n;
+                    }
+                    if (this.inflater.finished() || this.inflater.needsDictionary()) {
+                        return -1;
+                    }
+                    if (this.inflater.needsInput()) {
+                        if (this.dummyByteSupplied) {
+                            throw new EOFException("Unexpected end of deflated ZIP entry");
+                        }
+                        // nowrap モードでは末尾にダミーバイトが必要な場合がある (java.util.zip.ZipFile と同じ扱い)
+                        this.inflater.setInput(new byte[1]);
+                        this.dummyByteSupplied = true;
+                    }
+                }
+            } catch (DataFormatException e) {
+                throw new ZipException("Invalid deflated ZIP entry data: " + e.getMessage());
+            }
+        }
+
+        @Override
+        public int available() {
+            return this.closed || this.inflater.finished() ? 0 : this.remaining;
+        }
+
+        @Override
+        public void close() {
+            if (!this.closed) {
+                this.closed = true;
+                this.inflater.end();
+            }
+        }
+    }
+}
@@ -15,16 +15,7 @@ import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 
 import javax.annotation.Nullable;
-import java.io.ByteArrayInputStream;
-import java.io.FileNotFoundException;
-import java.io.IOException;
 import java.io.InputStream;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.util.Collections;
-import java.util.List;
-import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
@@ -32,8 +23,8 @@ import java.util.concurrent.Executor;
 public class ModSoundResourcePack implements PackResources, PreparableReloadListener {
     private static final Logger LOGGER = LogUtils.getLogger();
     private final String packId;
-    private String soundsJsonContent = "{}";
-    private Map<ResourceLocation, Path> oggResourceMap = Collections.emptyMap();
+    // Resources are validated once when the snapshot is captured; lookups never touch the file system.
+    private volatile SoundResourceSnapshot snapshot = SoundResourceSnapshot.EMPTY;
 
     public static final ResourceLocation SOUNDS_JSON_RL = ResourceLocation.fromNamespaceAndPath(Music_Player.MOD_ID, "sounds.json");
     private static final String OGG_RESOURCE_SOUNDS_PREFIX = "sounds/";
@@ -56,18 +47,42 @@ public class ModSoundResourcePack implements PackResources, PreparableReloadList
         }, backgroundExecutor).thenCompose(stage::wait).thenRunAsync(() -> {
             reloadProfiler.push("MusicPlayerSoundPackReloadApply");
             LOGGER.debug("[{}] Applying Music Player sound pack data (apply phase)...", packId);
-            this.soundsJsonContent = Music_Player.soundPackManager.generateSoundsJsonContent();
-            this.oggResourceMap = Music_Player.soundPackManager.getOggResourceMap();
+            SoundResourceSnapshot applied = refreshSnapshot();
             LOGGER.info("[{}] Applied new sound data. sounds.json length: {}, ogg files: {}",
-                    packId, this.soundsJsonContent.length(), this.oggResourceMap.size());
-            if ("{}".equals(this.soundsJsonContent) && !this.oggResourceMap.isEmpty()) {
+                    packId, applied.getSoundsJsonLength(), applied.getOggResources().size());
+            if (applied.hasEmptySoundsJson() && !applied.getOggResources().isEmpty()) {
                 LOGGER.warn("[{}] sounds.json is empty but OGG files were found. This might indicate an issue in sounds.json generation.", packId);
             }
+            if (LOGGER.isTraceEnabled()) {
+                LOGGER.trace("[{}] sounds.json dump:\n{}", packId, applied.dumpSoundsJson());
+            }
             reloadProfiler.pop();
             LOGGER.debug("[{}] Reload apply phase complete.", packId);
         }, gameExecutor);
     }
 
+    /**
+     * Captures the current state of SoundPackManager. Existence and size of every resource are checked here,
+     * so that getResource / listResources only need a hash lookup afterward.
+     */
+    public SoundResourceSnapshot refreshSnapshot() {
+        SoundResourceSnapshot captured = SoundResourceSnapshot.capture(Music_Player.soundPackManager);
+        this.snapshot = captured;
+        return captured;
+    }
+
+    public SoundResourceSnapshot getSnapshot() {
+        return this.snapshot;
+    }
+
+    /**
+     * Replaces the snapshot without going through a resource reload.
+     * Only use this when the registered sounds are unchanged (see {@link SoundResourceSnapshot#hasSameSounds}).
+     */
+    public void installSnapshot(SoundResourceSnapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+
     @Nullable
     @Override
     public IoSupplier<InputStream> getRootResource(String @NotNull ... pathParts) {
@@ -92,84 +107,52 @@ public class ModSoundResourcePack implements PackResources, PreparableReloadList
         // 1. sounds.json processing
         if (location.equals(SOUNDS_JSON_RL)) {
             LOGGER.debug("[{}] getResource - Handling SOUNDS.JSON request for: {}", currentPackId, location);
-            if ("{}".equals(this.soundsJsonContent)) {
+            SoundResourceSnapshot current = this.snapshot;
+            if (current.hasEmptySoundsJson()) {
                 LOGGER.warn("[{}] getResource - SOUNDS.JSON was empty. FALLBACK: Regenerating data.", currentPackId);
                 // Fallback to regenerate data if reload might not have completed in time.
-                this.soundsJsonContent = Music_Player.soundPackManager.generateSoundsJsonContent();
-                this.oggResourceMap = Music_Player.soundPackManager.getOggResourceMap();
+                current = refreshSnapshot();
                 LOGGER.debug("[{}] getResource - FALLBACK COMPLETE: sounds.json length: {}, ogg files: {}",
-                        currentPackId, this.soundsJsonContent.length(), this.oggResourceMap.size());
+                        currentPackId, current.getSoundsJsonLength(), current.getOggResources().size());
             }
-            return () -> new ByteArrayInputStream(this.soundsJsonContent.getBytes(StandardCharsets.UTF_8));
+            return current::openSoundsJson;
         }
 
         // 2. OGG file request determination
-        // The oggResourceMap can contain Paths within a ZipFS, which Files.newInputStream handles transparently.
+        // Handles in the snapshot were validated when it was captured, so this is a single map probe.
+        // If a file disappears afterward, the error surfaces as an IOException when the stream is opened.
         if (location.getPath().startsWith(OGG_RESOURCE_SOUNDS_PREFIX) && location.getPath().endsWith(".ogg")) {
-            LOGGER.debug("[{}] getResource - OGG REQUEST identified for: {}", currentPackId, location);
-            if (this.oggResourceMap == null || this.oggResourceMap.isEmpty()) {
-                LOGGER.warn("[{}] getResource - OGG REQUEST: oggResourceMap is null or empty for {}. Attempting to re-populate.", currentPackId, location);
-                this.oggResourceMap = Music_Player.soundPackManager.getOggResourceMap(); // Attempt to re-fetch
-                LOGGER.debug("[{}] getResource - OGG REQUEST: oggResourceMap re-populated, new size: {}.", currentPackId, this.oggResourceMap.size());
+            SoundResourceSnapshot current = this.snapshot;
+            if (current.getOggResources().isEmpty()) {
+                LOGGER.warn("[{}] getResource - OGG REQUEST: snapshot has no OGG resources for {}. Attempting to re-populate.", currentPackId, location);
+                current = refreshSnapshot();
             }
 
-            if (this.oggResourceMap.containsKey(location)) {
-                Path oggPath = this.oggResourceMap.get(location);
-                // Added debug log to check FileSystem status
-                LOGGER.debug("[{}] getResource - OGG REQUEST: Key FOUND for {}. Path: {}, FileSystem: {}, IsOpen: {}",
-                        currentPackId, location, oggPath, oggPath.getFileSystem(), oggPath.getFileSystem().isOpen());
-
-                if (oggPath.getFileSystem().isOpen() && Files.exists(oggPath) && Files.isRegularFile(oggPath)) {
-                    LOGGER.debug("[{}] getResource - OGG REQUEST: Providing file {} from {}", currentPackId, location, oggPath);
-                    try {
-                        return () -> Files.newInputStream(oggPath);
-                    } catch (Exception e) {
-                        LOGGER.error("[{}] getResource - OGG REQUEST: Error creating InputStream for {}: {}", currentPackId, oggPath, e.getMessage(), e);
-                        return null;
-                    }
-                } else {
-                    LOGGER.error("[{}] getResource - OGG REQUEST: File in map but NOT FOUND, not a file, or FileSystem closed: {} (expected at {}, FileSystem Open: {})", currentPackId, location, oggPath, oggPath.getFileSystem().isOpen());
-                    return null;
-                }
-            } else {
-                LOGGER.debug("[{}] getResource - OGG REQUEST: Key NOT FOUND in oggResourceMap for {}. Map size: {}", currentPackId, location, this.oggResourceMap.size());
-                if (!this.oggResourceMap.isEmpty()) {
-                    LOGGER.trace("[{}] getResource - OGG REQUEST: Dumping oggResourceMap keys (first 10) for comparison with requested key <{}>:", currentPackId, location);
-                    this.oggResourceMap.keySet().stream().limit(10).forEach(key -> LOGGER.trace("  - Map key: {}", key));
-                }
+            PackResourceHandle oggHandle = current.getOggResource(location);
+            if (oggHandle == null) {
+                LOGGER.debug("[{}] getResource - OGG REQUEST: Key NOT FOUND in snapshot for {}. Map size: {}", currentPackId, location, current.getOggResources().size());
                 return null;
             }
+            PackArchivePool archivePool = Music_Player.soundPackManager.getArchivePool();
+            return () -> Music_Player.soundPackManager.openAudio(location, oggHandle, archivePool);
         }
 
         // 3. pack.png (icon) processing
         // The RL generated by SoundPackManager is in the format music_player:<internalId>/pack.png
         String requestedPath = location.getPath();
         if (requestedPath.endsWith("/pack.png")) {
-            // Find SoundPackInfo based on the icon's ResourceLocation
-            SoundPackInfo packInfo = Music_Player.soundPackManager.getLoadedSoundPacks().stream()
-                    .filter(spi -> spi.getIconLocation() != null && spi.getIconLocation().equals(location))
-                    .findFirst().orElse(null);
+            // Find SoundPackInfo based on the icon's ResourceLocation (indexed when the packs were loaded)
+            SoundPackInfo packInfo = Music_Player.soundPackManager.getPackByIconLocation(location);
 
             if (packInfo != null) {
-                Path iconPhysicalPath = packInfo.getIconFileSystemPath(); // Get physical path from SoundPackInfo
-                if (iconPhysicalPath != null) {
-                    LOGGER.debug("[{}] getResource - Pack Icon REQUEST for: {}. Using physical path: {}",
-                            currentPackId, location, iconPhysicalPath);
-                    if (iconPhysicalPath.getFileSystem().isOpen() && Files.exists(iconPhysicalPath) && Files.isRegularFile(iconPhysicalPath)) {
-                        try {
-                            return () -> Files.newInputStream(iconPhysicalPath);
-                        } catch (Exception e) {
-                            LOGGER.error("[{}] getResource - Pack Icon REQUEST: Error creating InputStream for {}: {}",
-                                    currentPackId, iconPhysicalPath, e.getMessage(), e);
-                            return null;
-                        }
-                    } else {
-                        LOGGER.warn("[{}] getResource - Pack Icon file (from SoundPackInfo.iconFileSystemPath) not found, not a file, or FileSystem closed: {} (Path: {}, FileSystem Open: {})",
-                                currentPackId, location, iconPhysicalPath, iconPhysicalPath.getFileSystem().isOpen());
-                        return null;
-                    }
+                PackResourceHandle iconHandle = packInfo.getIconResource(); // Validated when the pack metadata was loaded
+                if (iconHandle != null) {
+                    LOGGER.debug("[{}] getResource - Pack Icon REQUEST for: {}. Using entry: {}",
+                            currentPackId, location, iconHandle.entry());
+                    PackArchivePool archivePool = Music_Player.soundPackManager.getArchivePool();
+                    return () -> iconHandle.open(archivePool);
                 } else {
-                    LOGGER.warn("[{}] getResource - Pack Icon REQUEST: SoundPackInfo found for {}, but its iconFileSystemPath is null.", currentPackId, location);
+                    LOGGER.warn("[{}] getResource - Pack Icon REQUEST: SoundPackInfo found for {}, but its icon resource is null.", currentPackId, location);
                 }
             } else {
                 LOGGER.warn("[{}] getResource - Pack Icon REQUEST: Could not find SoundPackInfo for ResourceLocation: {}", currentPackId, location);
@@ -191,77 +174,31 @@ public class ModSoundResourcePack implements PackResources, PreparableReloadList
             LOGGER.debug("[{}] listResources - Query received. Namespace: '{}', Path: '{}'",
                     currentPackId, namespace, path);
 
+            SoundResourceSnapshot current = this.snapshot;
+            if (current == SoundResourceSnapshot.EMPTY) {
+                LOGGER.warn("[{}] listResources - No snapshot has been captured yet. Capturing one now.", currentPackId);
+                current = refreshSnapshot();
+            }
+
             // 1. sounds.json listing
             if (path.isEmpty() || SOUNDS_JSON_RL.getPath().startsWith(path)) {
-                if (!"{}".equals(this.soundsJsonContent) || path.isEmpty() || SOUNDS_JSON_RL.getPath().equals(path)) {
-                    LOGGER.debug("[{}] listResources - Attempting to list {} for path query '{}'. Current soundsJsonContent length: {}",
-                            currentPackId, SOUNDS_JSON_RL, path, this.soundsJsonContent.length());
-                    resourceOutput.accept(SOUNDS_JSON_RL, () -> new ByteArrayInputStream(this.soundsJsonContent.getBytes(StandardCharsets.UTF_8)));
+                if (!current.hasEmptySoundsJson() || path.isEmpty() || SOUNDS_JSON_RL.getPath().equals(path)) {
+                    LOGGER.debug("[{}] listResources - Attempting to list {} for path query '{}'. Current sounds.json length: {}",
+                            currentPackId, SOUNDS_JSON_RL, path, current.getSoundsJsonLength());
+                    resourceOutput.accept(SOUNDS_JSON_RL, current::openSoundsJson);
                     LOGGER.debug("[{}] listResources - Successfully listed {} for path query '{}'", currentPackId, SOUNDS_JSON_RL, path);
                 }
             }
 
-            // 2. OGG file listing
-            if (path.isEmpty() || path.equals(OGG_RESOURCE_SOUNDS_PREFIX.substring(0, OGG_RESOURCE_SOUNDS_PREFIX.length()-1)) || path.startsWith(OGG_RESOURCE_SOUNDS_PREFIX)) {
-                Map<ResourceLocation, Path> managerMap = Music_Player.soundPackManager.getOggResourceMap();
-                Map<ResourceLocation, Path> currentOggMapToUse = (managerMap != null && !managerMap.isEmpty()) ? managerMap : this.oggResourceMap;
-
-                if (managerMap != null && !managerMap.isEmpty()) {
-                    LOGGER.debug("[{}] listResources - Fetched oggResourceMap from SoundPackManager for OGG listing (size {}).", currentPackId, currentOggMapToUse.size());
-                } else {
-                    LOGGER.warn("[{}] listResources - Using instance oggResourceMap for OGG listing (size {}), as manager's map was null or empty.", currentPackId, currentOggMapToUse.size());
-                }
-
-                for (Map.Entry<ResourceLocation, Path> entry : currentOggMapToUse.entrySet()) {
-                    ResourceLocation fullOggRl = entry.getKey();
-                    Path oggDiskPath = entry.getValue();
-
-                    if (!fullOggRl.getNamespace().equals(Music_Player.MOD_ID)) {
-                        continue;
-                    }
-                    if (fullOggRl.getPath().startsWith(path)) {
-                        LOGGER.debug("[{}] listResources - Listing OGG: {} (for query path '{}', FileSystem Open: {})", currentPackId, fullOggRl, path, oggDiskPath.getFileSystem().isOpen());
-                        resourceOutput.accept(fullOggRl, () -> {
-                            try {
-                                if (oggDiskPath.getFileSystem().isOpen() && Files.exists(oggDiskPath) && Files.isRegularFile(oggDiskPath)) {
-                                    return Files.newInputStream(oggDiskPath);
-                                } else {
-                                    LOGGER.error("[{}] listResources - Listed OGG file not found on disk or FileSystem closed: {} (expected at {}, FileSystem Open: {})", currentPackId, fullOggRl, oggDiskPath, oggDiskPath.getFileSystem().isOpen());
-                                    throw new FileNotFoundException("Listed OGG not found or FileSystem closed: " + oggDiskPath);
-                                }
-                            } catch (IOException e) {
-                                LOGGER.error("[{}] listResources - IOException for OGG {}: {}", currentPackId, fullOggRl, e.getMessage());
-                                throw new RuntimeException(e);
-                            }
-                        });
-                    }
-                }
-            }
-
-            // 3. pack.png (icon) listing
-            List<SoundPackInfo> loadedPacks = Music_Player.soundPackManager.getLoadedSoundPacks();
-            for (SoundPackInfo packInfo : loadedPacks) {
-                ResourceLocation iconRl = packInfo.getIconLocation();
-                Path iconPhysicalPath = packInfo.getIconFileSystemPath(); // Get physical path from SoundPackInfo
-
-                if (iconRl != null && iconPhysicalPath != null && iconRl.getNamespace().equals(Music_Player.MOD_ID) && iconRl.getPath().startsWith(path)) {
-                    LOGGER.debug("[{}] listResources - Listing Pack Icon: {} (Physical Path: {}, for query path '{}', FileSystem Open: {})",
-                            currentPackId, iconRl, iconPhysicalPath, path, iconPhysicalPath.getFileSystem().isOpen());
-                    resourceOutput.accept(iconRl, () -> {
-                        try {
-                            if (iconPhysicalPath.getFileSystem().isOpen() && Files.exists(iconPhysicalPath) && Files.isRegularFile(iconPhysicalPath)) {
-                                return Files.newInputStream(iconPhysicalPath);
-                            } else {
-                                LOGGER.error("[{}] listResources - Listed Pack Icon file not found on disk or FileSystem closed: {} (expected at {}, FileSystem Open: {})", currentPackId, iconRl, iconPhysicalPath, iconPhysicalPath.getFileSystem().isOpen());
-                                throw new FileNotFoundException("Listed Pack Icon not found or FileSystem closed: " + iconPhysicalPath);
-                            }
-                        } catch (IOException e) {
-                            LOGGER.error("[{}] listResources - IOException for Pack Icon {}: {}", currentPackId, iconRl, e.getMessage());
-                            throw new RuntimeException(e);
-                        }
-                    });
-                }
-            }
+            // 2. OGG file and pack.png (icon) listing
+            // The snapshot's path index is sorted, so only the entries matching the prefix are visited.
+            ResourcePathIndex pathIndex = current.getPathIndex();
+            LOGGER.debug("[{}] listResources - Using snapshot path index (size {}).", currentPackId, pathIndex.size());
+            PackArchivePool archivePool = Music_Player.soundPackManager.getArchivePool();
+            pathIndex.forEachWithPrefix(path, (resourceRl, handle) -> {
+                LOGGER.trace("[{}] listResources - Listing: {} (for query path '{}', Entry: {})", currentPackId, resourceRl, path, handle.entry());
+                resourceOutput.accept(resourceRl, () -> handle.open(archivePool));
+            });
         }
     }
 
@@ -296,7 +233,7 @@ public class ModSoundResourcePack implements PackResources, PreparableReloadList
 
     @Override
     public void close() {
-        // ModSoundResourcePack itself does not open ZipFileSystems, so nothing to do here.
-        // Closing ZipFileSystems is handled by SoundPackManager.
+        // ModSoundResourcePack itself does not own any archives, so nothing to do here.
+        // Archive handles are pooled and closed by SoundPackManager's PackArchivePool.
     }
 }
\ No newline at end of file
@@ -1,98 +1,156 @@
 package com.zoma1101.music_player.sound;
 
-import com.google.gson.annotations.SerializedName;
 import net.minecraft.resources.ResourceLocation;
 import net.minecraft.ResourceLocationException; // ResourceLocationException をインポート
 import org.jetbrains.annotations.Nullable;
 
-import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
 
+/**
+ * 読み込み済みの条件定義。
+ * 大きなパックでは数万件になるため、JSON の入れ物 ({@link MusicDefinitionJson}) から変換したコンパクトな形で保持します。
+ * 省略可能な数値・真偽値はボックス化せず、指定されているかどうかを {@code flags} のビットで表します。
+ * 文字列とリストは {@link DefinitionInterner} で定義間で共有されます。
+ */
 public class MusicDefinition {
 
-    // --- JSONから直接ロードされるフィールド ---
-    @SerializedName("priority")
-    public int priority = 0;
-
-    @SerializedName("music")
-    public String musicFileInPack; // 例: "music/bgm_combat.ogg" (パック内の相対パス)
-
-    @SerializedName("biomes")
-    @Nullable
-    public List<String> biomes = null;
-
-    @SerializedName("is_night")
-    @Nullable
-    public Boolean isNight = null;
-
-    @SerializedName("is_combat")
+    // --- flags: 真偽値の条件 (HAS_* が指定の有無、VALUE_* がその値) ---
+    private static final int HAS_NIGHT = 1;
+    private static final int HAS_COMBAT = 1 << 1;
+    private static final int HAS_VILLAGE = 1 << 2;
+    private static final int HAS_RADIUS = 1 << 3;
+    private static final int VALUE_NIGHT = 1 << 4;
+    private static final int VALUE_COMBAT = 1 << 5;
+    private static final int VALUE_VILLAGE = 1 << 6;
+    // --- flags: 整数の条件。指定されたものだけが intValues にこのビットの順で詰めて入る ---
+    private static final int HAS_MIN_Y = 1 << 8;
+    private static final int HAS_MAX_Y = 1 << 9;
+    private static final int HAS_MIN_COUNT = 1 << 10;
+    private static final int HAS_MAX_COUNT = 1 << 11;
+    private static final int HAS_FADE_IN = 1 << 12;
+    private static final int HAS_FADE_OUT = 1 << 13;
+    private static final int INT_VALUE_BITS = HAS_MIN_Y | HAS_MAX_Y | HAS_MIN_COUNT | HAS_MAX_COUNT | HAS_FADE_IN | HAS_FADE_OUT;
+    private static final int[] NO_INT_VALUES = new int[0];
+
+    private final int priority;
+    private final int flags;
+    private final double radius;
+    private final int[] intValues;
+    private final String musicFileInPack; // 例: "music/bgm_combat.ogg" (パック内の相対パス)
     @Nullable
-    public Boolean isCombat = null;
-
-    @SerializedName("is_village")
+    private final List<String> biomes;
     @Nullable
-    public Boolean isVillage = null;
-
-    @SerializedName("min_y")
+    private final List<String> weather;
     @Nullable
-    public Integer minY = null;
-
-    @SerializedName("max_y")
+    private final List<String> dimensions;
     @Nullable
-    public Integer maxY = null;
-
-    @SerializedName("gui_screen")
+    private final List<String> entityConditions; // エンティティIDまたはタグのリスト (例: ["minecraft:zombie", "#minecraft:raiders", "!minecraft:bat"])
     @Nullable
-    public String guiScreen = null;
+    private final String guiScreen;
 
-    @SerializedName("weather")
-    @Nullable
-    public List<String> weather = null;
-
-    @SerializedName("dimensions")
-    @Nullable
-    public List<String> dimensions = null;
-
-    // --- エンティティ条件用のトップレベルフィールド ---
-    @SerializedName("entity_conditions")
-    @Nullable
-    public List<String> entityConditions = null; // エンティティIDまたはタグのリスト (例: ["minecraft:zombie", "#minecraft:raiders",
-                                                 // "!minecraft:bat"])
-
-    @SerializedName("radius")
-    @Nullable
-    public Double radius = null;
+    // --- ロード処理中に決まる内部フィールド ---
+    private final String soundPackId; // この定義が属するSoundPackのID
+    private final PackEntryRef oggEntry; // OGGファイルへの安定した参照 (パックソース + パック内パス)
+    // sounds.json のトップレベルキー (例: "cool_pack/music/battle1")
+    // Minecraft内部ではこのキーでサウンドイベントが認識される
+    private final String soundEventKey;
+    // MODがOGGファイルを提供するためのResourceLocation (例:
+    // "music_player:cool_pack/music/battle1.ogg")
+    // sounds.json の "sounds": [{"name": "..."}] で使われる。パスは soundEventKey と同じ文字列を共有する
+    private final ResourceLocation oggResourceLocation;
+
+    private MusicDefinition(int priority, int flags, double radius, int[] intValues, String musicFileInPack,
+                            @Nullable List<String> biomes, @Nullable List<String> weather, @Nullable List<String> dimensions,
+                            @Nullable List<String> entityConditions, @Nullable String guiScreen,
+                            String soundPackId, PackEntryRef oggEntry, String soundEventKey, ResourceLocation oggResourceLocation) {
+        this.priority = priority;
+        this.flags = flags;
+        this.radius = radius;
+        this.intValues = intValues;
+        this.musicFileInPack = musicFileInPack;
+        this.biomes = biomes;
+        this.weather = weather;
+        this.dimensions = dimensions;
+        this.entityConditions = entityConditions;
+        this.guiScreen = guiScreen;
+        this.soundPackId = soundPackId;
+        this.oggEntry = oggEntry;
+        this.soundEventKey = soundEventKey;
+        this.oggResourceLocation = oggResourceLocation;
+    }
 
-    @SerializedName("min_count")
-    @Nullable
-    public Integer minCount = null;
+    /**
+     * JSON から読み込んだ定義をコンパクトな形に変換します。{@code json} はこの後保持されません。
+     */
+    static MusicDefinition compile(MusicDefinitionJson json, DefinitionInterner interner, String soundPackId,
+                                   PackEntryRef oggEntry, String soundEventKey, ResourceLocation oggResourceLocation) {
+        int flags = 0;
+        flags |= booleanFlags(json.isNight, HAS_NIGHT, VALUE_NIGHT);
+        flags |= booleanFlags(json.isCombat, HAS_COMBAT, VALUE_COMBAT);
+        flags |= booleanFlags(json.isVillage, HAS_VILLAGE, VALUE_VILLAGE);
+        if (json.radius != null) {
+            flags |= HAS_RADIUS;
+        }
 
-    @SerializedName("max_count")
-    @Nullable
-    public Integer maxCount = null; // nullの場合は上限なし
+        // intValues の並びは HAS_* のビットの順 (下位ビットから)
+        Integer[] optionalInts = {json.minY, json.maxY, json.minCount, json.maxCount, json.fadeInTicks, json.fadeOutTicks};
+        int[] presentBits = {HAS_MIN_Y, HAS_MAX_Y, HAS_MIN_COUNT, HAS_MAX_COUNT, HAS_FADE_IN, HAS_FADE_OUT};
+        int[] values = new int[optionalInts.length];
+        int count = 0;
+        for (int i = 0; i < optionalInts.length; i++) {
+            if (optionalInts[i] != null) {
+                flags |= presentBits[i];
+                values[count++] = optionalInts[i];
+            }
+        }
+        int[] intValues = count == 0 ? NO_INT_VALUES : Arrays.copyOf(values, count);
+
+        return new MusicDefinition(
+                json.priority,
+                flags,
+                json.radius != null ? json.radius : 0.0,
+                intValues,
+                json.musicFileInPack,
+                interner.intern(json.biomes),
+                interner.intern(json.weather),
+                interner.intern(json.dimensions),
+                interner.intern(json.entityConditions),
+                interner.intern(json.guiScreen),
+                interner.intern(soundPackId),
+                oggEntry,
+                soundEventKey,
+                oggResourceLocation);
+    }
 
-    @SerializedName("fade_in_ticks")
-    @Nullable
-    public Integer fadeInTicks = null;
+    private static int booleanFlags(@Nullable Boolean value, int presentBit, int valueBit) {
+        if (value == null) {
+            return 0;
+        }
+        return value ? presentBit | valueBit : presentBit;
+    }
 
-    @SerializedName("fade_out_ticks")
     @Nullable
-    public Integer fadeOutTicks = null;
+    private Boolean getBoolean(int presentBit, int valueBit) {
+        if ((flags & presentBit) == 0) {
+            return null;
+        }
+        return (flags & valueBit) != 0 ? Boolean.TRUE : Boolean.FALSE;
+    }
 
-    // --- ロード処理中に設定される内部フィールド ---
-    private transient String soundPackId; // この定義が属するSoundPackのID
-    private transient Path absoluteOggPath; // OGGファイルの絶対パス
-    // sounds.json のトップレベルキー (例: "cool_pack/music/battle1")
-    // Minecraft内部ではこのキーでサウンドイベントが認識される
-    private transient String soundEventKey;
-    // MODがOGGファイルを提供するためのResourceLocation (例:
-    // "music_player:cool_pack/music/battle1.ogg")
-    // sounds.json の "sounds": [{"name": "..."}] で使われる
-    private transient ResourceLocation oggResourceLocation;
+    private boolean has(int presentBit) {
+        return (flags & presentBit) != 0;
+    }
 
-    // Gsonのためのデフォルトコンストラクタ
-    public MusicDefinition() {
+    /**
+     * 指定されていない値を読んだ場合は 0 を返します。
+     */
+    private int getInt(int presentBit) {
+        if ((flags & presentBit) == 0) {
+            return 0;
+        }
+        return intValues[Integer.bitCount(flags & INT_VALUE_BITS & (presentBit - 1))];
     }
 
     // --- Getter ---
@@ -111,27 +169,33 @@ public class MusicDefinition {
 
     @Nullable
     public Boolean isNight() {
-        return isNight;
+        return getBoolean(HAS_NIGHT, VALUE_NIGHT);
     }
 
     @Nullable
     public Boolean isCombat() {
-        return isCombat;
+        return getBoolean(HAS_COMBAT, VALUE_COMBAT);
     }
 
     @Nullable
     public Boolean isVillage() {
-        return isVillage;
+        return getBoolean(HAS_VILLAGE, VALUE_VILLAGE);
     }
 
-    @Nullable
-    public Integer getMinY() {
-        return minY;
+    public boolean hasMinY() {
+        return has(HAS_MIN_Y);
     }
 
-    @Nullable
-    public Integer getMaxY() {
-        return maxY;
+    public int getMinY() {
+        return getInt(HAS_MIN_Y);
+    }
+
+    public boolean hasMaxY() {
+        return has(HAS_MAX_Y);
+    }
+
+    public int getMaxY() {
+        return getInt(HAS_MAX_Y);
     }
 
     @Nullable
@@ -154,58 +218,67 @@ public class MusicDefinition {
         return entityConditions;
     }
 
-    @Nullable
-    public Double getRadius() {
+    public boolean hasRadius() {
+        return has(HAS_RADIUS);
+    }
+
+    public double getRadius() {
         return radius;
     }
 
-    @Nullable
-    public Integer getMinCount() {
-        return minCount;
+    public boolean hasMinCount() {
+        return has(HAS_MIN_COUNT);
     }
 
-    @Nullable
-    public Integer getMaxCount() {
-        return maxCount;
+    public int getMinCount() {
+        return getInt(HAS_MIN_COUNT);
     }
 
-    @Nullable
-    public Integer getFadeInTicks() {
-        return fadeInTicks;
+    public boolean hasMaxCount() {
+        return has(HAS_MAX_COUNT); // 指定されていない場合は上限なし
     }
 
-    @Nullable
-    public Integer getFadeOutTicks() {
-        return fadeOutTicks;
+    public int getMaxCount() {
+        return getInt(HAS_MAX_COUNT);
     }
 
-    public String getSoundPackId() {
-        return soundPackId;
+    public boolean hasFadeInTicks() {
+        return has(HAS_FADE_IN);
     }
 
-    public String getSoundEventKey() {
-        return soundEventKey;
+    public int getFadeInTicks() {
+        return getInt(HAS_FADE_IN);
     }
 
-    public ResourceLocation getOggResourceLocation() {
-        return oggResourceLocation;
+    public boolean hasFadeOutTicks() {
+        return has(HAS_FADE_OUT);
     }
 
-    // --- Setter (ロード処理中に使用) ---
-    public void setSoundPackId(String soundPackId) {
-        this.soundPackId = soundPackId;
+    public int getFadeOutTicks() {
+        return getInt(HAS_FADE_OUT);
     }
 
-    public void setAbsoluteOggPath(Path absoluteOggPath) {
-        this.absoluteOggPath = absoluteOggPath;
+    /**
+     * intValues に詰めて保持している整数の数 (ヒープ使用量の見積もり用)。
+     */
+    int getIntValueCount() {
+        return intValues.length;
     }
 
-    public void setSoundEventKey(String soundEventKey) {
-        this.soundEventKey = soundEventKey;
+    public String getSoundPackId() {
+        return soundPackId;
     }
 
-    public void setOggResourceLocation(ResourceLocation oggResourceLocation) {
-        this.oggResourceLocation = oggResourceLocation;
+    public String getSoundEventKey() {
+        return soundEventKey;
+    }
+
+    public PackEntryRef getOggEntry() {
+        return oggEntry;
+    }
+
+    public ResourceLocation getOggResourceLocation() {
+        return oggResourceLocation;
     }
 
     public boolean isValid() {
@@ -213,7 +286,7 @@ public class MusicDefinition {
         if (priority < 0 ||
                 musicFileInPack == null || musicFileInPack.isBlank() ||
                 soundPackId == null || soundPackId.isBlank() ||
-                absoluteOggPath == null ||
+                oggEntry == null ||
                 soundEventKey == null || soundEventKey.isBlank() ||
                 oggResourceLocation == null) {
             return false;
@@ -222,14 +295,14 @@ public class MusicDefinition {
         // エンティティ条件の妥当性チェック
         if (entityConditions != null && !entityConditions.isEmpty()) {
             // entityConditions が指定されている場合、radius は必須
-            if (radius == null || radius <= 0)
+            if (!hasRadius() || radius <= 0)
                 return false;
             // minCount, maxCount の基本的なバリデーション
-            if (minCount != null && minCount < 0)
+            if (hasMinCount() && getMinCount() < 0)
                 return false;
-            if (maxCount != null && maxCount < 0)
+            if (hasMaxCount() && getMaxCount() < 0)
                 return false;
-            if (minCount != null && maxCount != null && minCount > maxCount)
+            if (hasMinCount() && hasMaxCount() && getMinCount() > getMaxCount())
                 return false;
 
             // entityConditions リスト内の各要素の形式チェック
@@ -254,7 +327,7 @@ public class MusicDefinition {
                 }
             }
         } else
-            return radius == null && minCount == null && maxCount == null;
+            return !hasRadius() && !hasMinCount() && !hasMaxCount();
         return true;
     }
 
@@ -267,21 +340,41 @@ public class MusicDefinition {
                 ", soundEventKey='" + soundEventKey + '\'' +
                 ", oggResourceLocation=" + oggResourceLocation +
                 ", biomes=" + biomes +
-                ", isNight=" + isNight +
-                ", isCombat=" + isCombat +
-                ", isVillage=" + isVillage +
-                ", minY=" + minY +
-                ", maxY=" + maxY +
+                ", isNight=" + isNight() +
+                ", isCombat=" + isCombat() +
+                ", isVillage=" + isVillage() +
+                ", minY=" + (hasMinY() ? getMinY() : null) +
+                ", maxY=" + (hasMaxY() ? getMaxY() : null) +
                 ", guiScreen='" + guiScreen + '\'' +
                 ", weather=" + weather +
                 ", dimensions=" + dimensions +
                 ", entityConditions=" + entityConditions +
-                ", radius=" + radius +
-                ", minCount=" + minCount +
-                ", maxCount=" + maxCount +
+                ", radius=" + (hasRadius() ? radius : null) +
+                ", minCount=" + (hasMinCount() ? getMinCount() : null) +
+                ", maxCount=" + (hasMaxCount() ? getMaxCount() : null) +
                 '}';
     }
 
+    /**
+     * 条件・優先度・参照する OGG まで全て同じ定義かどうか。{@link #equals(Object)} は SoundEventKey だけを比べます。
+     */
+    public boolean hasSameContent(MusicDefinition other) {
+        return priority == other.priority
+                && flags == other.flags
+                && Double.compare(radius, other.radius) == 0
+                && Arrays.equals(intValues, other.intValues)
+                && musicFileInPack.equals(other.musicFileInPack)
+                && Objects.equals(biomes, other.biomes)
+                && Objects.equals(weather, other.weather)
+                && Objects.equals(dimensions, other.dimensions)
+                && Objects.equals(entityConditions, other.entityConditions)
+                && Objects.equals(guiScreen, other.guiScreen)
+                && soundPackId.equals(other.soundPackId)
+                && oggEntry.equals(other.oggEntry)
+                && soundEventKey.equals(other.soundEventKey)
+                && oggResourceLocation.equals(other.oggResourceLocation);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o)
@@ -296,4 +389,4 @@ public class MusicDefinition {
     public int hashCode() {
         return Objects.hash(soundEventKey);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,85 @@
+package com.zoma1101.music_player.sound;
+
+import com.google.gson.annotations.SerializedName;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+
+/**
+ * conditions/*.json をそのまま読み込むための入れ物。
+ * 読み込んだ後は {@link MusicDefinition#compile} でコンパクトな形に変換し、このオブジェクトは保持しません。
+ */
+class MusicDefinitionJson {
+
+    @SerializedName("priority")
+    public int priority = 0;
+
+    @SerializedName("music")
+    public String musicFileInPack; // 例: "music/bgm_combat.ogg" (パック内の相対パス)
+
+    @SerializedName("biomes")
+    @Nullable
+    public List<String> biomes = null;
+
+    @SerializedName("is_night")
+    @Nullable
+    public Boolean isNight = null;
+
+    @SerializedName("is_combat")
+    @Nullable
+    public Boolean isCombat = null;
+
+    @SerializedName("is_village")
+    @Nullable
+    public Boolean isVillage = null;
+
+    @SerializedName("min_y")
+    @Nullable
+    public Integer minY = null;
+
+    @SerializedName("max_y")
+    @Nullable
+    public Integer maxY = null;
+
+    @SerializedName("gui_screen")
+    @Nullable
+    public String guiScreen = null;
+
+    @SerializedName("weather")
+    @Nullable
+    public List<String> weather = null;
+
+    @SerializedName("dimensions")
+    @Nullable
+    public List<String> dimensions = null;
+
+    // --- エンティティ条件用のトップレベルフィールド ---
+    @SerializedName("entity_conditions")
+    @Nullable
+    public List<String> entityConditions = null; // エンティティIDまたはタグのリスト (例: ["minecraft:zombie", "#minecraft:raiders",
+                                                 // "!minecraft:bat"])
+
+    @SerializedName("radius")
+    @Nullable
+    public Double radius = null;
+
+    @SerializedName("min_count")
+    @Nullable
+    public Integer minCount = null;
+
+    @SerializedName("max_count")
+    @Nullable
+    public Integer maxCount = null; // nullの場合は上限なし
+
+    @SerializedName("fade_in_ticks")
+    @Nullable
+    public Integer fadeInTicks = null;
+
+    @SerializedName("fade_out_ticks")
+    @Nullable
+    public Integer fadeOutTicks = null;
+
+    // Gsonのためのデフォルトコンストラクタ
+    MusicDefinitionJson() {
+    }
+}
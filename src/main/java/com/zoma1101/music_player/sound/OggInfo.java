@@ -0,0 +1,157 @@
+package com.zoma1101.music_player.sound;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Ogg/Vorbis ファイルのヘッダーから読み取った情報。
+ * 先頭ページの識別ヘッダー (チャンネル数・サンプリングレート) と、末尾のページのグラニュール位置 (総サンプル数) だけを読みます。
+ * サウンドエンジンで再生できないファイルの場合は {@code error} に理由が入ります。
+ *
+ * @param channels     チャンネル数
+ * @param sampleRate   サンプリングレート (Hz)
+ * @param totalSamples チャンネルあたりの総サンプル数
+ * @param error        読み取れなかった理由。正常なファイルでは null
+ */
+public record OggInfo(int channels, int sampleRate, long totalSamples, @Nullable String error) {
+    // 先頭ページは識別ヘッダーだけを含むので、これだけ読めば十分
+    private static final int HEAD_BYTES = 4096;
+    // 最後のページを探すために読む末尾の長さ (Ogg のページは最大で約 64KiB)
+    private static final int TAIL_BYTES = 65536 + 27 + 255;
+    private static final int PAGE_HEADER_SIZE = 27;
+    private static final int FLAG_BEGINNING_OF_STREAM = 0x02;
+    private static final int FLAG_END_OF_STREAM = 0x04;
+
+    public boolean isValid() {
+        return this.error == null;
+    }
+
+    /**
+     * 再生時間 (ミリ秒)。読み取れなかった場合は 0 です。
+     */
+    public long durationMillis() {
+        return isValid() && this.sampleRate > 0 ? this.totalSamples * 1000 / this.sampleRate : 0;
+    }
+
+    static OggInfo invalid(String error) {
+        return new OggInfo(0, 0, 0, error);
+    }
+
+    /**
+     * OGG ファイルのヘッダーを読みます。{@code size} はファイル全体のサイズで、末尾まではシークして読み飛ばします。
+     */
+    public static OggInfo read(InputStream in, long size) throws IOException {
+        // 先頭と末尾の範囲が重なる小さなファイルは全体を一度に読む (最後のページが先頭の範囲をまたいでいても見つけられるように)
+        boolean wholeFile = size <= HEAD_BYTES + TAIL_BYTES;
+        byte[] head = in.readNBytes((int) (wholeFile ? size : HEAD_BYTES));
+        if (!isPageAt(head, 0)) {
+            return invalid("not an Ogg stream");
+        }
+        if ((head[5] & FLAG_BEGINNING_OF_STREAM) == 0) {
+            return invalid("first page is not the beginning of a stream");
+        }
+        int serial = readIntLE(head, 14);
+        int segments = head[26] & 0xFF;
+        int packetStart = PAGE_HEADER_SIZE + segments;
+        if (packetStart + 16 > head.length) {
+            return invalid("truncated identification header");
+        }
+        if (startsWith(head, packetStart, "OpusHead")) {
+            return invalid("Opus audio is not supported (Vorbis is required)");
+        }
+        if (head[packetStart] != 1 || !startsWith(head, packetStart + 1, "vorbis")) {
+            return invalid("not a Vorbis stream");
+        }
+        int vorbisVersion = readIntLE(head, packetStart + 7);
+        int channels = head[packetStart + 11] & 0xFF;
+        int sampleRate = readIntLE(head, packetStart + 12);
+        if (vorbisVersion != 0) {
+            return invalid("unsupported Vorbis version " + vorbisVersion);
+        }
+        if (channels == 0 || sampleRate <= 0) {
+            return invalid("invalid channel count (" + channels + ") or sample rate (" + sampleRate + ")");
+        }
+
+        // 末尾の範囲だけ読み、最後のページ (end-of-stream) のグラニュール位置を総サンプル数とする
+        byte[] lastPageBuffer = head;
+        if (!wholeFile) {
+            long tailStart = size - TAIL_BYTES;
+            long toSkip = tailStart - head.length;
+            while (toSkip > 0) {
+                long skipped = in.skip(toSkip);
+                if (skipped <= 0) {
+                    return invalid("file is shorter than its recorded size");
+                }
+                toSkip -= skipped;
+            }
+            lastPageBuffer = in.readNBytes(TAIL_BYTES);
+        }
+        int lastPage = lastPage(lastPageBuffer, serial);
+        if (lastPage < 0 || (lastPageBuffer[lastPage + 5] & FLAG_END_OF_STREAM) == 0
+                || lastPage + pageLength(lastPageBuffer, lastPage) > lastPageBuffer.length) {
+            return invalid("no end-of-stream page (the file may be truncated)");
+        }
+        long granule = readLongLE(lastPageBuffer, lastPage + 6);
+        if (granule <= 0) {
+            return invalid("the stream contains no audio");
+        }
+        return new OggInfo(channels, sampleRate, granule, null);
+    }
+
+    /**
+     * バッファ内で最後に見つかった、同じストリームのページの位置を返します。なければ -1 です。
+     */
+    private static int lastPage(byte[] buffer, int serial) {
+        for (int pos = buffer.length - PAGE_HEADER_SIZE; pos >= 0; pos--) {
+            if (isPageAt(buffer, pos) && readIntLE(buffer, pos + 14) == serial) {
+                return pos;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * ページ全体 (ヘッダー・セグメントテーブル・データ) の長さ。セグメントテーブルが途中で切れている場合は int の最大値です。
+     */
+    private static int pageLength(byte[] buffer, int pos) {
+        int segments = buffer[pos + 26] & 0xFF;
+        if (pos + PAGE_HEADER_SIZE + segments > buffer.length) {
+            return Integer.MAX_VALUE;
+        }
+        int length = PAGE_HEADER_SIZE + segments;
+        for (int i = 0; i < segments; i++) {
+            length += buffer[pos + PAGE_HEADER_SIZE + i] & 0xFF;
+        }
+        return length;
+    }
+
+    private static boolean isPageAt(byte[] buffer, int pos) {
+        return pos + PAGE_HEADER_SIZE <= buffer.length
+                && buffer[pos] == 'O' && buffer[pos + 1] == 'g' && buffer[pos + 2] == 'g' && buffer[pos + 3] == 'S'
+                && buffer[pos + 4] == 0;
+    }
+
+    private static boolean startsWith(byte[] buffer, int pos, String ascii) {
+        byte[] expected = ascii.getBytes(StandardCharsets.US_ASCII);
+        if (pos + expected.length > buffer.length) {
+            return false;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if (buffer[pos + i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int readIntLE(byte[] buffer, int pos) {
+        return (buffer[pos] & 0xFF) | (buffer[pos + 1] & 0xFF) << 8 | (buffer[pos + 2] & 0xFF) << 16 | (buffer[pos + 3] & 0xFF) << 24;
+    }
+
+    private static long readLongLE(byte[] buffer, int pos) {
+        return (readIntLE(buffer, pos) & 0xFFFFFFFFL) | (long) readIntLE(buffer, pos + 4) << 32;
+    }
+}
@@ -0,0 +1,186 @@
+package com.zoma1101.music_player.sound;
+
+import com.mojang.logging.LogUtils;
+import com.zoma1101.music_player.util.FileChannelInputStream;
+import org.slf4j.Logger;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * ZIP・索引付きサウンドパックのアーカイブハンドル ({@link MappedZipArchive} / {@link IndexedPackArchive}) を必要な時だけ開き、LRU で上限数までだけ開いたままにするプール。
+ * ストリーミング中のアーカイブはピン留めされ、再生が終わるまで閉じられません。
+ */
+public class PackArchivePool {
+    private static final Logger LOGGER = LogUtils.getLogger();
+
+    private final int capacity;
+    // accessOrder = true で LRU 順に並ぶ
+    private final LinkedHashMap<Path, Slot> openArchives = new LinkedHashMap<>(16, 0.75f, true);
+
+    public PackArchivePool(int capacity) {
+        this.capacity = Math.max(1, capacity);
+    }
+
+    /**
+     * アーカイブを開いて（既に開いていれば再利用して）ピン留めします。
+     * 返された {@link Lease} を閉じるとピンが外れ、LRU の対象に戻ります。
+     */
+    public synchronized Lease acquire(Path archivePath) throws IOException {
+        Path key = archivePath.toAbsolutePath().normalize();
+        Slot slot = this.openArchives.get(key);
+        if (slot == null || !slot.archive.isOpen()) {
+            PackContainer archive = IndexedPackArchive.isIndexedPackFile(key)
+                    ? IndexedPackArchive.open(key)
+                    : MappedZipArchive.open(key);
+            slot = new Slot(archive);
+            this.openArchives.put(key, slot);
+            LOGGER.debug("Opened archive {} (open: {}/{})", key, this.openArchives.size(), this.capacity);
+        }
+        slot.pins++;
+        evictIfNeeded();
+        return new Lease(key, slot);
+    }
+
+    /**
+     * エントリの入力ストリームを開きます。アーカイブ内のエントリの場合、ストリームが閉じられるまでアーカイブはピン留めされます。
+     */
+    public InputStream openStream(PackEntryRef ref) throws IOException {
+        if (!ref.archive()) {
+            // ディレクトリパックは大きなダイレクトバッファで先読みするチャネルストリームで読む
+            return FileChannelInputStream.open(ref.resolveIn(ref.sourcePath()));
+        }
+        Lease lease = acquire(ref.sourcePath());
+        try {
+            InputStream in = lease.container().open(ref.entryPath());
+            return new FilterInputStream(in) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        lease.close();
+                    }
+                }
+            };
+        } catch (IOException | RuntimeException e) {
+            lease.close();
+            throw e;
+        }
+    }
+
+    /**
+     * エントリが通常ファイルとして存在するかを確認します。
+     */
+    public boolean isRegularFile(PackEntryRef ref) {
+        if (!ref.archive()) {
+            return Files.isRegularFile(ref.resolveIn(ref.sourcePath()));
+        }
+        try (Lease lease = acquire(ref.sourcePath())) {
+            return lease.container().isFile(ref.entryPath());
+        } catch (IOException e) {
+            LOGGER.warn("Failed to open archive {} while checking entry {}: {}", ref.sourcePath(), ref.entryPath(), e.getMessage());
+            return false;
+        }
+    }
+
+    private synchronized void release(Path key, Slot slot) {
+        slot.pins--;
+        if (this.openArchives.get(key) != slot && slot.pins <= 0) {
+            // プールから外された後に最後のピンが外れた場合はここで閉じる
+            closeQuietly(key, slot);
+            return;
+        }
+        evictIfNeeded();
+    }
+
+    private void evictIfNeeded() {
+        if (this.openArchives.size() <= this.capacity) {
+            return;
+        }
+        Iterator<Map.Entry<Path, Slot>> iterator = this.openArchives.entrySet().iterator();
+        while (this.openArchives.size() > this.capacity && iterator.hasNext()) {
+            Map.Entry<Path, Slot> eldest = iterator.next();
+            if (eldest.getValue().pins > 0) {
+                continue; // ストリーミング中のアーカイブは閉じない
+            }
+            iterator.remove();
+            closeQuietly(eldest.getKey(), eldest.getValue());
+            LOGGER.debug("Evicted archive {} from pool (open: {}/{})", eldest.getKey(), this.openArchives.size(), this.capacity);
+        }
+    }
+
+    /**
+     * ピン留めされていないアーカイブを全て閉じ、ピン留め中のものは最後のリースが返却された時点で閉じます。
+     */
+    public synchronized void closeAll() {
+        LOGGER.debug("Closing all pooled archives (count: {})...", this.openArchives.size());
+        for (Map.Entry<Path, Slot> entry : this.openArchives.entrySet()) {
+            if (entry.getValue().pins <= 0) {
+                closeQuietly(entry.getKey(), entry.getValue());
+            }
+        }
+        this.openArchives.clear();
+    }
+
+    public synchronized int getOpenCount() {
+        return this.openArchives.size();
+    }
+
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    private static void closeQuietly(Path key, Slot slot) {
+        LOGGER.trace("Closing archive: {}", key);
+        slot.archive.close();
+    }
+
+    private static final class Slot {
+        private final PackContainer archive;
+        private int pins;
+
+        private Slot(PackContainer archive) {
+            this.archive = archive;
+        }
+    }
+
+    /**
+     * ピン留めされたアーカイブへのハンドル。閉じるとピンが外れます。
+     */
+    public final class Lease implements Closeable {
+        private final Path key;
+        private final Slot slot;
+        private boolean released = false;
+
+        private Lease(Path key, Slot slot) {
+            this.key = key;
+            this.slot = slot;
+        }
+
+        /**
+         * アーカイブの中身。リースが有効な間だけ使用できます。
+         */
+        public PackContainer container() {
+            return this.slot.archive;
+        }
+
+        @Override
+        public void close() {
+            synchronized (PackArchivePool.this) {
+                if (this.released) {
+                    return;
+                }
+                this.released = true;
+            }
+            release(this.key, this.slot);
+        }
+    }
+}
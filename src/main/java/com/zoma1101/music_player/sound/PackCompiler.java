@@ -0,0 +1,388 @@
+package com.zoma1101.music_player.sound;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.zoma1101.music_player.Music_Player;
+import net.minecraft.ResourceLocationException;
+import net.minecraft.resources.ResourceLocation;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Minecraft を起動せずにサウンドパックを検証し、条件定義をまとめた索引 ({@value PackIndex#FILE_NAME}) を書き出すコマンドラインツール。
+ * ゲーム内の読み込みと同じ規則 (pack.mcmeta・assets 直下のディレクトリ・OGG の存在・ID やタグの形式など) で全ての条件定義を並列に検査し、
+ * エラーが無ければ索引を書き出します。ゲーム側は索引が最新であれば条件定義の JSON を一つずつ読まずにそれを使います。
+ * <p>
+ * 使い方: {@code PackCompiler [--check] <パックのディレクトリ・.zip・.mpack> [出力先.mpack]}
+ * <ul>
+ *   <li>ディレクトリのパックは、その中に索引を書きます (出力先を指定した場合は索引を含めた .mpack を書き出します)。</li>
+ *   <li>アーカイブのパックは、索引を含めた {@value IndexedPackArchive#FILE_EXTENSION} を書き出します。</li>
+ *   <li>{@code --check} は検証だけを行い、何も書き出しません。</li>
+ * </ul>
+ * Gradle からは {@code ./gradlew compileSoundPack -Ppack=<パス>} で実行できます。エラーがあると終了コード 1 で終了します。
+ */
+public final class PackCompiler {
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+    private static final Set<String> KNOWN_WEATHER = Set.of("clear", "rain", "thunder");
+
+    private PackCompiler() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        boolean checkOnly = false;
+        List<String> paths = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.equals("--check")) {
+                checkOnly = true;
+            } else {
+                paths.add(arg);
+            }
+        }
+        if (paths.isEmpty() || paths.size() > 2) {
+            System.err.println("Usage: PackCompiler [--check] <pack directory, .zip or " + IndexedPackArchive.FILE_EXTENSION + "> [output"
+                    + IndexedPackArchive.FILE_EXTENSION + "]");
+            System.exit(2);
+            return;
+        }
+        Path source = Paths.get(paths.get(0));
+        @Nullable Path output = paths.size() > 1 ? Paths.get(paths.get(1)) : null;
+        if (!Files.exists(source)) {
+            System.err.println("Pack not found: " + source);
+            System.exit(2);
+            return;
+        }
+
+        long start = System.nanoTime();
+        Result result;
+        try (PackContainer container = openContainer(source)) {
+            result = validate(container);
+            for (Issue issue : result.issues()) {
+                System.out.println(issue);
+            }
+            System.out.printf(Locale.ROOT, "%s: %d definitions, %d errors, %d warnings (%d ms)%n",
+                    source, result.index() != null ? result.index().definitions.size() : 0,
+                    result.count(Severity.ERROR), result.count(Severity.WARNING), (System.nanoTime() - start) / 1_000_000);
+            if (result.hasErrors()) {
+                System.exit(1);
+                return;
+            }
+            if (checkOnly || result.index() == null) {
+                return;
+            }
+            byte[] indexBytes = GSON.toJson(result.index()).getBytes(StandardCharsets.UTF_8);
+            if (Files.isDirectory(source) && output == null) {
+                Path indexFile = source.resolve(PackIndex.FILE_NAME);
+                writeAtomically(indexFile, indexBytes);
+                System.out.println("Wrote " + indexFile);
+                return;
+            }
+            Path target = output != null ? output : IndexedPackWriter.defaultTarget(source);
+            if (Files.exists(target) && Files.isSameFile(source, target)) {
+                System.err.println("The output must not overwrite the source pack: " + target);
+                System.exit(2);
+                return;
+            }
+            IndexedPackWriter.Summary summary = IndexedPackWriter.write(container, Map.of(PackIndex.FILE_NAME, indexBytes),
+                    target, IndexedPackWriter.DEFAULT_PAGE_SIZE);
+            System.out.printf(Locale.ROOT, "Wrote %s: %d entries (%d audio), %d bytes%n",
+                    target, summary.entries(), summary.audioEntries(), summary.fileSize());
+        }
+    }
+
+    private static PackContainer openContainer(Path source) throws IOException {
+        if (Files.isDirectory(source)) {
+            return new DirectoryPackContainer(source);
+        }
+        return IndexedPackArchive.isIndexedPackFile(source) ? IndexedPackArchive.open(source) : MappedZipArchive.open(source);
+    }
+
+    /**
+     * パックを検証します。エラーが無ければ結果に索引が含まれます。
+     */
+    static Result validate(PackContainer container) {
+        List<Issue> issues = new ArrayList<>();
+        String assetId = validateLayout(container, issues);
+        if (assetId == null) {
+            return new Result(issues, null);
+        }
+
+        String conditionsDir = "assets/" + assetId + "/" + SoundPackManager.CONDITIONS_DIR_NAME;
+        List<String> conditionFiles;
+        try {
+            conditionFiles = container.isDirectory(conditionsDir)
+                    ? container.listFiles(conditionsDir).stream().filter(entryPath -> entryPath.endsWith(".json")).sorted().toList()
+                    : List.of();
+        } catch (IOException e) {
+            issues.add(Issue.error(conditionsDir, "Failed to list condition files: " + e.getMessage()));
+            return new Result(issues, null);
+        }
+        if (conditionFiles.isEmpty()) {
+            issues.add(Issue.warning(conditionsDir, "No condition files found. The pack will not play any music."));
+        }
+
+        // 条件定義は互いに独立しているので並列に検査する (結果の順序は conditionFiles の順)
+        List<DefinitionResult> results = conditionFiles.parallelStream()
+                .map(jsonEntry -> validateDefinition(container, assetId, jsonEntry))
+                .toList();
+
+        List<PackIndex.Entry> entries = new ArrayList<>();
+        Map<String, String> sourceByEventKey = new HashMap<>();
+        for (DefinitionResult result : results) {
+            issues.addAll(result.issues());
+            if (result.entry() == null) {
+                continue;
+            }
+            entries.add(result.entry());
+            String previous = sourceByEventKey.putIfAbsent(result.soundEventKey(), result.entry().source);
+            if (previous != null) {
+                issues.add(Issue.warning(result.entry().source, "Uses the same sound file as " + previous
+                        + ". Both definitions share one sound event key, so lookups by that key only return one of them."));
+            }
+        }
+        issues.sort(Comparator.comparing(Issue::entry).thenComparing(Issue::severity));
+        boolean hasErrors = issues.stream().anyMatch(issue -> issue.severity() == Severity.ERROR);
+        return new Result(issues, hasErrors ? null : new PackIndex(assetId, entries));
+    }
+
+    /**
+     * pack.mcmeta と assets ディレクトリを {@link SoundPackManager} と同じ規則で検査し、assetId を返します。
+     */
+    @Nullable
+    private static String validateLayout(PackContainer container, List<Issue> issues) {
+        String metadataFile = SoundPackManager.PACK_METADATA_FILE;
+        if (!container.isFile(metadataFile)) {
+            issues.add(Issue.error(metadataFile, "Missing pack metadata file."));
+        } else {
+            try (Reader reader = newReader(container, metadataFile)) {
+                JsonElement root = JsonParser.parseReader(reader);
+                JsonObject packMeta = root.isJsonObject() ? root.getAsJsonObject().getAsJsonObject("pack") : null;
+                if (packMeta == null) {
+                    issues.add(Issue.error(metadataFile, "Missing 'pack' object."));
+                } else if (!packMeta.has("pack_format")) {
+                    issues.add(Issue.error(metadataFile, "Missing 'pack_format'."));
+                } else {
+                    packMeta.get("pack_format").getAsInt();
+                    if (!packMeta.has("description")) {
+                        issues.add(Issue.warning(metadataFile, "Missing 'description'."));
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                issues.add(Issue.error(metadataFile, "Failed to read or parse: " + e.getMessage()));
+            }
+        }
+
+        if (!container.isDirectory("assets")) {
+            issues.add(Issue.error("assets", "Missing 'assets' directory."));
+            return null;
+        }
+        List<String> assetSubDirs;
+        try {
+            assetSubDirs = container.listChildDirectories("assets");
+        } catch (IOException e) {
+            issues.add(Issue.error("assets", "Failed to list sub-directories: " + e.getMessage()));
+            return null;
+        }
+        if (assetSubDirs.size() != 1) {
+            issues.add(Issue.error("assets", "Expected exactly one sub-directory to use as the asset ID, found " + assetSubDirs + "."));
+            return null;
+        }
+        String assetId = assetSubDirs.get(0);
+        if (!assetId.matches("[a-z0-9_.-]+")) {
+            issues.add(Issue.error("assets/" + assetId, "Asset ID contains invalid characters. Only lowercase a-z, 0-9, '_', '.', '-' are allowed."));
+            return null;
+        }
+        return assetId;
+    }
+
+    private static DefinitionResult validateDefinition(PackContainer container, String assetId, String jsonEntry) {
+        List<Issue> issues = new ArrayList<>();
+        MusicDefinitionJson json;
+        try (Reader reader = newReader(container, jsonEntry)) {
+            json = GSON.fromJson(reader, MusicDefinitionJson.class);
+        } catch (IOException | JsonParseException e) {
+            issues.add(Issue.error(jsonEntry, "Failed to read or parse: " + e.getMessage()));
+            return new DefinitionResult(issues, null, null);
+        }
+        if (json == null || json.musicFileInPack == null || json.musicFileInPack.isBlank()) {
+            issues.add(Issue.error(jsonEntry, "Missing 'music' field."));
+            return new DefinitionResult(issues, null, null);
+        }
+        if (json.priority < 0) {
+            issues.add(Issue.error(jsonEntry, "'priority' must not be negative: " + json.priority));
+        }
+
+        // --- OGG ---
+        String musicEntry = PackEntryRef.normalize("assets/" + assetId + "/" + json.musicFileInPack);
+        long musicSize = container.size(musicEntry);
+        if (musicSize < 0) {
+            issues.add(Issue.error(jsonEntry, "Sound file not found: " + musicEntry));
+        } else if (!isOggFile(container, musicEntry)) {
+            issues.add(Issue.error(jsonEntry, "Sound file is not an Ogg file: " + musicEntry));
+        }
+        String soundEventKey = SoundPackManager.getSoundEventKey(json.musicFileInPack, assetId);
+        try {
+            ResourceLocation.fromNamespaceAndPath(Music_Player.MOD_ID, soundEventKey);
+        } catch (ResourceLocationException e) {
+            issues.add(Issue.error(jsonEntry, "Sound file path cannot be used as a sound event: " + e.getMessage()));
+        }
+
+        // --- ID とタグ ---
+        validateIds(jsonEntry, "biomes", json.biomes, true, false, issues);
+        validateIds(jsonEntry, "dimensions", json.dimensions, false, false, issues);
+        validateIds(jsonEntry, "entity_conditions", json.entityConditions, true, true, issues);
+        if (json.weather != null) {
+            for (String weather : json.weather) {
+                if (weather == null || !KNOWN_WEATHER.contains(weather.toLowerCase(Locale.ROOT))) {
+                    issues.add(Issue.warning(jsonEntry, "Unknown weather '" + weather + "' (expected clear, rain or thunder)."));
+                }
+            }
+        }
+
+        // --- 数値の条件 ---
+        boolean hasEntityConditions = json.entityConditions != null && !json.entityConditions.isEmpty();
+        if (hasEntityConditions) {
+            if (json.radius == null || json.radius <= 0) {
+                issues.add(Issue.error(jsonEntry, "'radius' must be a positive number when 'entity_conditions' is set."));
+            }
+            if ((json.minCount != null && json.minCount < 0) || (json.maxCount != null && json.maxCount < 0)) {
+                issues.add(Issue.error(jsonEntry, "'min_count' and 'max_count' must not be negative."));
+            } else if (json.minCount != null && json.maxCount != null && json.minCount > json.maxCount) {
+                issues.add(Issue.error(jsonEntry, "'min_count' is greater than 'max_count'."));
+            }
+        } else if (json.radius != null || json.minCount != null || json.maxCount != null) {
+            issues.add(Issue.error(jsonEntry, "'radius', 'min_count' and 'max_count' require 'entity_conditions'."));
+        }
+        if (json.minY != null && json.maxY != null && json.minY > json.maxY) {
+            issues.add(Issue.warning(jsonEntry, "'min_y' is greater than 'max_y'. The definition will never match."));
+        }
+        if ((json.fadeInTicks != null && json.fadeInTicks < 0) || (json.fadeOutTicks != null && json.fadeOutTicks < 0)) {
+            issues.add(Issue.warning(jsonEntry, "Negative fade ticks are treated as no fade."));
+        }
+
+        if (issues.stream().anyMatch(issue -> issue.severity() == Severity.ERROR)) {
+            return new DefinitionResult(issues, null, soundEventKey);
+        }
+        PackIndex.Entry entry = new PackIndex.Entry(jsonEntry, container.size(jsonEntry), musicSize, json);
+        return new DefinitionResult(issues, entry, soundEventKey);
+    }
+
+    /**
+     * ID (またはタグ) のリストを検査します。実行時は ID を文字列のまま比較するため、名前空間の無い ID は一致しません。
+     */
+    private static void validateIds(String jsonEntry, String field, @Nullable List<String> values, boolean allowTags,
+                                    boolean allowNegation, List<Issue> issues) {
+        if (values == null) {
+            return;
+        }
+        for (String value : values) {
+            if (value == null || value.isBlank()) {
+                issues.add(allowNegation
+                        ? Issue.error(jsonEntry, "Empty element in '" + field + "'.")
+                        : Issue.warning(jsonEntry, "Empty element in '" + field + "' is ignored."));
+                continue;
+            }
+            String id = value;
+            if (allowNegation && id.startsWith("!")) {
+                id = id.substring(1);
+            }
+            boolean tag = allowTags && id.startsWith("#");
+            if (tag) {
+                id = id.substring(1);
+            }
+            if (id.isEmpty()) {
+                issues.add(Issue.error(jsonEntry, "Incomplete " + field + " element '" + value + "'."));
+                continue;
+            }
+            try {
+                ResourceLocation.parse(id);
+            } catch (ResourceLocationException e) {
+                issues.add(Issue.error(jsonEntry, "Invalid " + (tag ? "tag" : "ID") + " '" + value + "' in '" + field + "': " + e.getMessage()));
+                continue;
+            }
+            if (!tag && !allowNegation && id.indexOf(':') < 0) {
+                issues.add(Issue.warning(jsonEntry, "'" + value + "' in '" + field + "' has no namespace and will never match. Use 'minecraft:" + id + "'."));
+            }
+        }
+    }
+
+    private static boolean isOggFile(PackContainer container, String entryPath) {
+        try (InputStream in = container.open(entryPath)) {
+            byte[] magic = in.readNBytes(4);
+            return magic.length == 4 && magic[0] == 'O' && magic[1] == 'g' && magic[2] == 'g' && magic[3] == 'S';
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static Reader newReader(PackContainer container, String entryPath) throws IOException {
+        return new BufferedReader(new InputStreamReader(container.open(entryPath), StandardCharsets.UTF_8));
+    }
+
+    private static void writeAtomically(Path target, byte[] content) throws IOException {
+        Path tempFile = Files.createTempFile(target.toAbsolutePath().getParent(), target.getFileName().toString(), ".tmp");
+        try {
+            Files.write(tempFile, content);
+            try {
+                Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    enum Severity {
+        ERROR, WARNING
+    }
+
+    record Issue(Severity severity, String entry, String message) {
+        static Issue error(String entry, String message) {
+            return new Issue(Severity.ERROR, entry, message);
+        }
+
+        static Issue warning(String entry, String message) {
+            return new Issue(Severity.WARNING, entry, message);
+        }
+
+        @Override
+        public String toString() {
+            return severity + " " + entry + ": " + message;
+        }
+    }
+
+    record Result(List<Issue> issues, @Nullable PackIndex index) {
+        boolean hasErrors() {
+            return count(Severity.ERROR) > 0;
+        }
+
+        long count(Severity severity) {
+            return this.issues.stream().filter(issue -> issue.severity() == severity).count();
+        }
+    }
+
+    private record DefinitionResult(List<Issue> issues, @Nullable PackIndex.Entry entry, @Nullable String soundEventKey) {
+    }
+}
@@ -0,0 +1,45 @@
+package com.zoma1101.music_player.sound;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * サウンドパックの中身（ディレクトリまたはアーカイブ）への読み取り専用ビュー。
+ * エントリパスは全てパックルートからの相対パスで、区切り文字は '/' です。
+ */
+public interface PackContainer extends Closeable {
+
+    /**
+     * エントリが通常ファイルとして存在するかを返します。
+     */
+    boolean isFile(String entryPath);
+
+    /**
+     * ディレクトリが存在するかを返します（アーカイブの場合は配下にエントリがあるかどうか）。
+     */
+    boolean isDirectory(String dirPath);
+
+    /**
+     * 指定ディレクトリ直下のサブディレクトリ名を返します。
+     */
+    List<String> listChildDirectories(String dirPath) throws IOException;
+
+    /**
+     * 指定ディレクトリ配下の全てのファイルのエントリパスを再帰的に返します。
+     */
+    List<String> listFiles(String dirPath) throws IOException;
+
+    /**
+     * ファイルの（展開後の）サイズを返します。存在しない場合は -1 を返します。
+     */
+    long size(String entryPath);
+
+    InputStream open(String entryPath) throws IOException;
+
+    boolean isOpen();
+
+    @Override
+    void close();
+}
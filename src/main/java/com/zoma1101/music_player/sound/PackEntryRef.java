@@ -0,0 +1,67 @@
+package com.zoma1101.music_player.sound;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Objects;
+
+/**
+ * サウンドパック内のエントリを指す安定した座標。
+ * 生きた {@link Path}（ZipFileSystem 内のパスなど）を保持しないため、アーカイブが閉じられても参照は無効になりません。
+ *
+ * @param sourcePath パックのディレクトリ、またはアーカイブファイルそのもののパス
+ * @param archive    {@code sourcePath} がアーカイブファイルかどうか
+ * @param entryPath  パックルートからの相対パス（区切り文字は常に '/'）
+ */
+public record PackEntryRef(Path sourcePath, boolean archive, String entryPath) {
+
+    public PackEntryRef {
+        Objects.requireNonNull(sourcePath, "Source path cannot be null");
+        Objects.requireNonNull(entryPath, "Entry path cannot be null");
+        entryPath = normalize(entryPath);
+    }
+
+    /**
+     * 開いているパックルート（ディレクトリ、またはアーカイブのルート）に対してこのエントリを解決します。
+     */
+    public Path resolveIn(Path packRoot) {
+        return packRoot.resolve(this.entryPath);
+    }
+
+    /**
+     * ファイルの更新日時 (ミリ秒)。アーカイブ内のエントリはアーカイブ自体の更新日時です。取得できなかった場合は -1 です。
+     */
+    public long lastModified() {
+        Path file = this.archive ? this.sourcePath : resolveIn(this.sourcePath);
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 区切り文字を '/' に統一し、空のセグメントや "." / ".." を取り除きます（パックルートの外には出られません）。
+     */
+    static String normalize(String entryPath) {
+        Deque<String> segments = new ArrayDeque<>();
+        for (String segment : entryPath.replace('\\', '/').split("/")) {
+            if (segment.isEmpty() || segment.equals(".")) {
+                continue;
+            }
+            if (segment.equals("..")) {
+                segments.pollLast();
+                continue;
+            }
+            segments.addLast(segment);
+        }
+        return String.join("/", segments);
+    }
+
+    @Override
+    public String toString() {
+        return sourcePath + (archive ? "!/" : "/") + entryPath;
+    }
+}
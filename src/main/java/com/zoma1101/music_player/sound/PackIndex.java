@@ -0,0 +1,145 @@
+package com.zoma1101.music_player.sound;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.annotations.SerializedName;
+import com.mojang.logging.LogUtils;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link PackCompiler} が書き出す、パックの全ての条件定義を検証済みの状態でまとめた索引 ({@value #FILE_NAME})。
+ * 索引が最新であれば、ゲーム側は条件定義の JSON を一つずつ読んで検証する代わりにこれだけを読みます。
+ */
+class PackIndex {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    static final String FILE_NAME = "music_player_index.json";
+    static final int FORMAT_VERSION = 1;
+
+    @SerializedName("format_version")
+    int formatVersion = FORMAT_VERSION;
+
+    @SerializedName("asset_id")
+    String assetId;
+
+    @SerializedName("definitions")
+    List<Entry> definitions;
+
+    // Gsonのためのデフォルトコンストラクタ
+    PackIndex() {
+    }
+
+    PackIndex(String assetId, List<Entry> definitions) {
+        this.assetId = assetId;
+        this.definitions = definitions;
+    }
+
+    static class Entry {
+        // 元になった条件定義の JSON のエントリパスとサイズ
+        @SerializedName("source")
+        String source;
+
+        @SerializedName("source_size")
+        long sourceSize;
+
+        // 確認済みの OGG のサイズ
+        @SerializedName("music_size")
+        long musicSize;
+
+        @SerializedName("definition")
+        MusicDefinitionJson definition;
+
+        // Gsonのためのデフォルトコンストラクタ
+        Entry() {
+        }
+
+        Entry(String source, long sourceSize, long musicSize, MusicDefinitionJson definition) {
+            this.source = source;
+            this.sourceSize = sourceSize;
+            this.musicSize = musicSize;
+            this.definition = definition;
+        }
+    }
+
+    /**
+     * パックの索引を読み込み、パックの中身と一致している場合だけ返します。
+     * 条件定義の JSON の一覧とサイズ、OGG のサイズを比べ、ディレクトリのパックでは索引より新しい JSON が無いことも確認します。
+     *
+     * @param conditionFiles 条件定義の JSON のエントリパス
+     * @param directory      ディレクトリのパックの場合はそのパス、アーカイブの場合は null
+     */
+    @Nullable
+    static PackIndex readIfCurrent(PackContainer container, Gson gson, String assetId, List<String> conditionFiles,
+                                   @Nullable Path directory) {
+        if (!container.isFile(FILE_NAME)) {
+            return null;
+        }
+        PackIndex index;
+        try (Reader reader = new BufferedReader(new InputStreamReader(container.open(FILE_NAME), StandardCharsets.UTF_8))) {
+            index = gson.fromJson(reader, PackIndex.class);
+        } catch (IOException | JsonParseException e) {
+            LOGGER.warn("  Ignoring unreadable precompiled index {}: {}", FILE_NAME, e.getMessage());
+            return null;
+        }
+        String reason = index == null ? "empty" : index.staleReason(container, assetId, conditionFiles, directory);
+        if (reason != null) {
+            LOGGER.info("  Ignoring precompiled index {} ({}). Definitions will be parsed individually.", FILE_NAME, reason);
+            return null;
+        }
+        return index;
+    }
+
+    @Nullable
+    private String staleReason(PackContainer container, String expectedAssetId, List<String> conditionFiles, @Nullable Path directory) {
+        if (this.formatVersion != FORMAT_VERSION) {
+            return "unsupported format version " + this.formatVersion;
+        }
+        if (!expectedAssetId.equals(this.assetId) || this.definitions == null) {
+            return "written for a different pack layout";
+        }
+        Map<String, Entry> bySource = new HashMap<>();
+        for (Entry entry : this.definitions) {
+            if (entry == null || entry.source == null || entry.definition == null || entry.definition.musicFileInPack == null) {
+                return "malformed entry";
+            }
+            bySource.put(entry.source, entry);
+        }
+        if (bySource.size() != conditionFiles.size()) {
+            return "condition files were added or removed";
+        }
+        long indexModified = directory != null ? lastModified(directory.resolve(FILE_NAME)) : 0;
+        for (String conditionFile : conditionFiles) {
+            Entry entry = bySource.get(conditionFile);
+            if (entry == null || entry.sourceSize != container.size(conditionFile)) {
+                return "changed condition file " + conditionFile;
+            }
+            if (directory != null && lastModified(directory.resolve(conditionFile)) > indexModified) {
+                return "condition file " + conditionFile + " is newer than the index";
+            }
+            String musicEntry = "assets/" + this.assetId + "/" + entry.definition.musicFileInPack;
+            if (entry.musicSize != container.size(musicEntry)) {
+                return "changed sound file " + musicEntry;
+            }
+        }
+        return null;
+    }
+
+    private static long lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+}
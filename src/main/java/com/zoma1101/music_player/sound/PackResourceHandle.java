@@ -0,0 +1,28 @@
+package com.zoma1101.music_player.sound;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * レジストリ構築時に存在とサイズを確認済みのリソース。
+ * リクエストの度にファイルシステムへ問い合わせる代わりに、このハンドルを引くだけで済みます。
+ * ファイルが後から消えた場合は {@link #open(PackArchivePool)} の時点で I/O エラーになります。
+ * 同じサイズのファイルに置き換えられた場合も別のハンドルになるよう、更新日時も比較の対象に含めます。
+ *
+ * @param entry    パック内のエントリ
+ * @param size     確認時点での（展開後の）サイズ
+ * @param modified 確認時点での更新日時 ({@link PackEntryRef#lastModified()})
+ */
+public record PackResourceHandle(PackEntryRef entry, long size, long modified) {
+
+    /**
+     * 更新日時を今のファイルから取得してハンドルを作ります。
+     */
+    public static PackResourceHandle of(PackEntryRef entry, long size) {
+        return new PackResourceHandle(entry, size, entry.lastModified());
+    }
+
+    public InputStream open(PackArchivePool archivePool) throws IOException {
+        return archivePool.openStream(this.entry);
+    }
+}
@@ -0,0 +1,72 @@
+package com.zoma1101.music_player.sound;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * サウンドパック読み込みの進捗。読み込みスレッドが更新し、UI スレッドが読み取ります。
+ * 新しい状態を反映する前であれば {@link #cancel()} で中断できます（中断した場合、現在の状態は変更されません）。
+ */
+public class PackScanProgress {
+    /**
+     * 進捗を表示しない読み込み用。キャンセルされることはありません。
+     */
+    public static final PackScanProgress NONE = new PackScanProgress() {
+        @Override
+        public void cancel() {
+        }
+    };
+
+    private final AtomicInteger packsTotal = new AtomicInteger();
+    private final AtomicInteger packsScanned = new AtomicInteger();
+    private final AtomicInteger definitionsParsed = new AtomicInteger();
+    private final AtomicInteger errors = new AtomicInteger();
+    private volatile boolean cancelled = false;
+
+    void setPacksTotal(int total) {
+        this.packsTotal.set(total);
+    }
+
+    void packScanned() {
+        this.packsScanned.incrementAndGet();
+    }
+
+    void definitionParsed() {
+        this.definitionsParsed.incrementAndGet();
+    }
+
+    void errorOccurred() {
+        this.errors.incrementAndGet();
+    }
+
+    public void cancel() {
+        this.cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return this.cancelled;
+    }
+
+    public int getPacksTotal() {
+        return this.packsTotal.get();
+    }
+
+    public int getPacksScanned() {
+        return this.packsScanned.get();
+    }
+
+    public int getDefinitionsParsed() {
+        return this.definitionsParsed.get();
+    }
+
+    public int getErrors() {
+        return this.errors.get();
+    }
+
+    /**
+     * パックフォルダの走査の進み具合 (0.0 - 1.0)。
+     */
+    public float getScanFraction() {
+        int total = getPacksTotal();
+        return total <= 0 ? 0.0f : Math.min(1.0f, (float) getPacksScanned() / total);
+    }
+}
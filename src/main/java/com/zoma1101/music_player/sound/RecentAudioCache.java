@@ -0,0 +1,174 @@
+package com.zoma1101.music_player.sound;
+
+import com.mojang.logging.LogUtils;
+import com.zoma1101.music_player.Music_Player;
+import net.minecraft.resources.ResourceLocation;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 最近再生したアーカイブ内の OGG を丸ごとメモリに置いておく LRU キャッシュ。
+ * バイオームを行き来して同じ曲を何度も再生する場合に、ZIP のエントリを開き直して展開し直す代わりにメモリから返します。
+ * <p>
+ * キャッシュに無い曲は通常通りパックから再生し、同時にバックグラウンドで全体を読み込んで次の再生に備えます。
+ * 合計は {@code recent_audio_cache_kb} までで、超えた分は最も長く使われていないものから捨てます。
+ */
+public class RecentAudioCache {
+    private static final Logger LOGGER = LogUtils.getLogger();
+
+    // リソース -> OGG 全体 (accessOrder = true で LRU 順に並ぶ)。this で同期する
+    private final LinkedHashMap<ResourceLocation, Payload> payloads = new LinkedHashMap<>(16, 0.75f, true);
+    // 読み込み中のリソース (同じ曲を重ねて読み込まないため)。this で同期する
+    private final Set<ResourceLocation> loading = new HashSet<>();
+    private long cachedBytes = 0;
+    // clear() の度に増やす。クリア前に始まった読み込みの結果を捨てるために使う。this で同期する
+    private long generation = 0;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, Music_Player.MOD_ID + "-audio-cache");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    RecentAudioCache() {
+    }
+
+    /**
+     * キャッシュにあればその内容のストリームを返します。無ければ null です。
+     * 対象外のディレクトリのパックのファイルは数えません。
+     */
+    @Nullable
+    InputStream open(ResourceLocation location, PackResourceHandle handle) {
+        if (!handle.entry().archive()) {
+            return null;
+        }
+        Payload cached;
+        synchronized (this) {
+            cached = this.payloads.get(location);
+        }
+        // 読み込んだ時と違うファイル (パックの読み込み直し後など) を指している場合は使わない
+        byte[] payload = cached != null && cached.handle().equals(handle) ? cached.bytes() : null;
+        if (payload == null) {
+            this.misses.incrementAndGet();
+            return null;
+        }
+        this.hits.incrementAndGet();
+        LOGGER.debug("Serving {} from the recent audio cache ({} bytes)", location, payload.length);
+        return new ByteArrayInputStream(payload);
+    }
+
+    /**
+     * アーカイブ内の OGG を、容量に収まる場合はバックグラウンドで全体を読み込んでキャッシュに入れます。
+     * ディレクトリのパックのファイルは開き直しても安いので対象にしません。
+     */
+    void loadInBackground(ResourceLocation location, PackResourceHandle handle, PackArchivePool archivePool, long capacityBytes) {
+        if (!handle.entry().archive() || handle.size() > capacityBytes || handle.size() > Integer.MAX_VALUE - 8) {
+            return;
+        }
+        long submittedGeneration;
+        synchronized (this) {
+            if (this.payloads.containsKey(location) || !this.loading.add(location)) {
+                return;
+            }
+            submittedGeneration = this.generation;
+        }
+        try {
+            this.executor.execute(() -> {
+                try (InputStream in = handle.open(archivePool)) {
+                    byte[] payload = in.readNBytes((int) handle.size());
+                    if (payload.length == handle.size() && in.read() == -1) {
+                        store(location, new Payload(handle, payload), capacityBytes, submittedGeneration);
+                    } else {
+                        LOGGER.debug("Not caching {}: its size differs from the registered size", location);
+                    }
+                } catch (IOException e) {
+                    LOGGER.debug("Failed to cache {}: {}", location, e.getMessage());
+                } finally {
+                    synchronized (this) {
+                        this.loading.remove(location);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // 終了処理中
+            synchronized (this) {
+                this.loading.remove(location);
+            }
+        }
+    }
+
+    /**
+     * 読み込みを始めた後にパックが読み込み直されていた場合は、同じリソースでも内容が違う可能性があるので捨てます。
+     */
+    private synchronized void store(ResourceLocation location, Payload payload, long capacityBytes, long submittedGeneration) {
+        if (submittedGeneration != this.generation) {
+            LOGGER.debug("Discarding {}: the packs were reloaded while it was being cached", location);
+            return;
+        }
+        Payload previous = this.payloads.put(location, payload);
+        this.cachedBytes += payload.bytes().length - (previous != null ? previous.bytes().length : 0);
+        Iterator<Map.Entry<ResourceLocation, Payload>> iterator = this.payloads.entrySet().iterator();
+        while (this.cachedBytes > capacityBytes && iterator.hasNext()) {
+            Map.Entry<ResourceLocation, Payload> eldest = iterator.next();
+            if (eldest.getKey().equals(location)) {
+                continue;
+            }
+            iterator.remove();
+            this.cachedBytes -= eldest.getValue().bytes().length;
+            this.evictions.incrementAndGet();
+        }
+        LOGGER.debug("Cached {} ({} bytes, {} bytes in total)", location, payload.bytes().length, this.cachedBytes);
+    }
+
+    /**
+     * キャッシュした内容を全て捨てます (パックを読み込み直した時など)。
+     */
+    synchronized void clear() {
+        this.payloads.clear();
+        this.cachedBytes = 0;
+        this.generation++;
+    }
+
+    public synchronized long getCachedBytes() {
+        return this.cachedBytes;
+    }
+
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+    public long getEvictions() {
+        return this.evictions.get();
+    }
+
+    /**
+     * キャッシュした OGG 全体と、読み込んだ時のリソース。
+     */
+    private record Payload(PackResourceHandle handle, byte[] bytes) {
+    }
+
+    void shutdown() {
+        this.executor.shutdownNow();
+        LOGGER.info("Recent audio cache: {} hits, {} misses, {} evictions", getHits(), getMisses(), getEvictions());
+    }
+}
@@ -0,0 +1,66 @@
+package com.zoma1101.music_player.sound;
+
+import net.minecraft.resources.ResourceLocation;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * 1つの名前空間内のリソースをパス順に並べた読み取り専用の索引。
+ * 前方一致の問い合わせは二分探索で開始位置を求め、一致する範囲だけを列挙します。
+ */
+public final class ResourcePathIndex {
+    public static final ResourcePathIndex EMPTY = new ResourcePathIndex(new String[0], new ResourceLocation[0], new PackResourceHandle[0]);
+
+    // 同じ添字で対応する並列配列 (paths の昇順)
+    private final String[] paths;
+    private final ResourceLocation[] locations;
+    private final PackResourceHandle[] handles;
+
+    private ResourcePathIndex(String[] paths, ResourceLocation[] locations, PackResourceHandle[] handles) {
+        this.paths = paths;
+        this.locations = locations;
+        this.handles = handles;
+    }
+
+    /**
+     * 指定した名前空間に属するリソースだけを索引にします。
+     */
+    public static ResourcePathIndex build(String namespace, Map<ResourceLocation, PackResourceHandle> resources) {
+        @SuppressWarnings("unchecked")
+        Map.Entry<ResourceLocation, PackResourceHandle>[] entries = resources.entrySet().stream()
+                .filter(entry -> entry.getKey().getNamespace().equals(namespace))
+                .sorted(Comparator.comparing(entry -> entry.getKey().getPath()))
+                .toArray(Map.Entry[]::new);
+
+        String[] paths = new String[entries.length];
+        ResourceLocation[] locations = new ResourceLocation[entries.length];
+        PackResourceHandle[] handles = new PackResourceHandle[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            locations[i] = entries[i].getKey();
+            paths[i] = locations[i].getPath();
+            handles[i] = entries[i].getValue();
+        }
+        return new ResourcePathIndex(paths, locations, handles);
+    }
+
+    /**
+     * パスが {@code prefix} で始まるリソースをパス順に列挙します。
+     */
+    public void forEachWithPrefix(String prefix, BiConsumer<ResourceLocation, PackResourceHandle> consumer) {
+        for (int i = lowerBound(prefix); i < this.paths.length && this.paths[i].startsWith(prefix); i++) {
+            consumer.accept(this.locations[i], this.handles[i]);
+        }
+    }
+
+    private int lowerBound(String prefix) {
+        int index = Arrays.binarySearch(this.paths, prefix);
+        return index >= 0 ? index : -(index + 1);
+    }
+
+    public int size() {
+        return this.paths.length;
+    }
+}
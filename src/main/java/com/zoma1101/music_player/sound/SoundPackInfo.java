@@ -13,13 +13,14 @@ public class SoundPackInfo {
     private final String assetId;      // assetsフォルダ直下のディレクトリ名 (自動検出)
     private final Component description;
     private final int packFormat;
-    private final Path packRootPath; // ディレクトリのパス、またはZipFileSystem内のルートパス
+    private final Path sourcePath; // パックのディレクトリ、またはZIPファイルそのもののパス
+    private final boolean archive;
     @Nullable
     private ResourceLocation iconLocation; // music_player:<internalId>/pack.png
     @Nullable
-    private Path iconFileSystemPath; // pack.pngへの実際のファイルシステムパス (ZipFS内も含む)
+    private PackResourceHandle iconResource; // 確認済みの pack.png への参照 (ZIP内も含む)
 
-    public SoundPackInfo(String internalId, Component displayName, String assetId, Component description, int packFormat, Path packRootPath) {
+    public SoundPackInfo(String internalId, Component displayName, String assetId, Component description, int packFormat, Path sourcePath, boolean archive) {
         this.internalId = Objects.requireNonNull(internalId, "Internal ID cannot be null");
         this.displayName = Objects.requireNonNull(displayName, "Display name cannot be null");
         this.assetId = Objects.requireNonNull(assetId, "Asset ID cannot be null");
@@ -28,7 +29,8 @@ public class SoundPackInfo {
         }
         this.description = Objects.requireNonNull(description, "Description cannot be null");
         this.packFormat = packFormat;
-        this.packRootPath = Objects.requireNonNull(packRootPath, "Pack root path cannot be null");
+        this.sourcePath = Objects.requireNonNull(sourcePath, "Pack source path cannot be null");
+        this.archive = archive;
     }
 
     public String getId() {
@@ -52,15 +54,29 @@ public class SoundPackInfo {
     }
 
     /**
-     * サウンドパックのルートパスを返します。
-     * ディレクトリベースの場合はそのディレクトリのパス、ZIPベースの場合はZipFileSystem内のルートパスになります。
+     * サウンドパックのソースパスを返します。
+     * ディレクトリベースの場合はそのディレクトリのパス、ZIPベースの場合はZIPファイルのパスになります。
      */
-    public Path getPackRootPath() {
-        return packRootPath;
+    public Path getSourcePath() {
+        return sourcePath;
     }
 
-    public Path getAssetsDirectory() {
-        return packRootPath.resolve("assets").resolve(this.assetId);
+    public boolean isArchive() {
+        return archive;
+    }
+
+    /**
+     * パックルートからの相対パスで、assets/&lt;assetId&gt;/ ディレクトリを表すプレフィックスを返します。
+     */
+    public String getAssetsEntryPrefix() {
+        return "assets/" + this.assetId + "/";
+    }
+
+    /**
+     * パックルートからの相対パスを、このパック内のエントリ参照に変換します。
+     */
+    public PackEntryRef entry(String entryPath) {
+        return new PackEntryRef(this.sourcePath, this.archive, entryPath);
     }
 
     @Nullable
@@ -73,12 +89,12 @@ public class SoundPackInfo {
     }
 
     @Nullable
-    public Path getIconFileSystemPath() {
-        return iconFileSystemPath;
+    public PackResourceHandle getIconResource() {
+        return iconResource;
     }
 
-    public void setIconFileSystemPath(@Nullable Path iconFileSystemPath) {
-        this.iconFileSystemPath = iconFileSystemPath;
+    public void setIconResource(@Nullable PackResourceHandle iconResource) {
+        this.iconResource = iconResource;
     }
 
     @Override
@@ -2,80 +2,126 @@ package com.zoma1101.music_player.sound;
 
 import com.google.gson.*;
 import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonWriter;
 import com.mojang.logging.LogUtils;
 import com.zoma1101.music_player.Music_Player;
+import com.zoma1101.music_player.config.MusicPlayerClientConfig;
+import com.zoma1101.music_player.util.WriteBehindFileWriter;
 import net.minecraft.ResourceLocationException;
 import net.minecraft.network.chat.Component;
 import net.minecraft.resources.ResourceLocation;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 
+import javax.annotation.Nullable;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.io.Reader;
-import java.io.Writer;
 import java.lang.reflect.Type;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public class SoundPackManager {
     private static final Logger LOGGER = LogUtils.getLogger();
     private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+    private static final byte[] EMPTY_SOUNDS_JSON = "{}".getBytes(StandardCharsets.UTF_8);
     public static final Path SOUNDPACKS_BASE_DIR = Paths.get("soundpacks");
-    private static final String PACK_METADATA_FILE = "pack.mcmeta";
-    private static final String CONDITIONS_DIR_NAME = "conditions";
+    static final String PACK_METADATA_FILE = "pack.mcmeta";
+    static final String CONDITIONS_DIR_NAME = "conditions";
     private static final String OGG_RESOURCE_SOUNDS_PREFIX = "sounds/";
 
     private static final Path CONFIG_DIR = Paths.get("config");
     private static final String ACTIVE_PACKS_CONFIG_FILE_NAME = Music_Player.MOD_ID + "_active_packs.json";
     private static final String PACK_ORDER_CONFIG_FILE_NAME = Music_Player.MOD_ID + "_pack_order.json";
+    private static final long CONFIG_WRITE_DELAY_MILLIS = 500;
 
-    private final List<SoundPackInfo> loadedSoundPacks = new CopyOnWriteArrayList<>();
-    private final List<MusicDefinition> allMusicDefinitions = new CopyOnWriteArrayList<>();
-    private final Map<ResourceLocation, Path> oggResourceMap = new ConcurrentHashMap<>();
-    private final Map<String, MusicDefinition> musicDefinitionByEventKey = new ConcurrentHashMap<>();
+    // 読み込んだパックと定義。パックを読み込み直す時は新しい状態を別に作り、完成してから丸ごと差し替える
+    private volatile PackState state = new PackState();
     private List<String> activeSoundPackIds = new CopyOnWriteArrayList<>();
     private List<String> packOrder = new CopyOnWriteArrayList<>();
+    // activeSoundPackIds / packOrder の索引 (それぞれを置き換える度に作り直す)
+    private volatile Set<String> activeSoundPackIdSet = Set.of();
+    private volatile Map<String, Integer> packRanks = Map.of();
+    // 有効な定義の並べ替え結果。定義・有効なパック・順序が変わる度に世代を進めて無効にする
+    private final AtomicInteger definitionsGeneration = new AtomicInteger();
+    private volatile ActiveDefinitions activeDefinitionsCache = null;
+    // 最後に生成した sounds.json にサウンドイベントが含まれているパック
+    private volatile Set<String> registeredSoundPackIds = Set.of();
+    // パックの状態を作り直している最中かどうか (差し替えるまでは古い状態のまま)
+    private volatile boolean reloading = false;
+    private volatile PackScanProgress scanProgress = PackScanProgress.NONE;
+    // 設定ファイルは短時間の変更をまとめて、書き込みスレッドで保存する
+    private final WriteBehindFileWriter configWriter = new WriteBehindFileWriter(Music_Player.MOD_ID + "-config-writer", CONFIG_WRITE_DELAY_MILLIS);
+    // OGG のハッシュとヘッダーの情報のキャッシュ
+    private final AudioFileCache audioFileCache = new AudioFileCache(GSON, configWriter);
+    // 次に再生されそうな曲の先頭を先読みする
+    private final TrackPrefetcher trackPrefetcher = new TrackPrefetcher(GSON, configWriter);
+    // 最近再生したアーカイブ内の OGG 全体
+    private final RecentAudioCache recentAudioCache = new RecentAudioCache();
 
-    private final List<FileSystem> openZipFileSystems = new CopyOnWriteArrayList<>();
+    // ZIPパックは必要な時だけ開き、上限数を超えた分は LRU で閉じる
+    private volatile PackArchivePool archivePool;
 
     public SoundPackManager() {
         // コンストラクタでの loadActivePacksConfig() 呼び出しは discoverAndLoadPacks に移動
     }
 
-    private void closeAllZipFileSystems() {
-        LOGGER.debug("Closing all open ZipFileSystems (count: {})...", openZipFileSystems.size());
-        for (FileSystem fs : this.openZipFileSystems) {
-            try {
-                if (fs.isOpen()) {
-                    fs.close();
-                    LOGGER.debug("Closed ZipFileSystem: {}", fs);
+    public PackArchivePool getArchivePool() {
+        PackArchivePool pool = this.archivePool;
+        if (pool == null) {
+            synchronized (this) {
+                pool = this.archivePool;
+                if (pool == null) {
+                    pool = new PackArchivePool(MusicPlayerClientConfig.getOrDefault(MusicPlayerClientConfig.INSTANCE.maxOpenArchives));
+                    this.archivePool = pool;
                 }
-            } catch (IOException e) {
-                LOGGER.error("Failed to close ZipFileSystem: {}", fs, e);
             }
         }
-        this.openZipFileSystems.clear();
+        return pool;
+    }
+
+    private synchronized void resetArchivePool() {
+        PackArchivePool oldPool = this.archivePool;
+        // 設定変更を反映するためにプールを作り直す (ストリーミング中のアーカイブは再生終了後に閉じられる)
+        this.archivePool = new PackArchivePool(MusicPlayerClientConfig.getOrDefault(MusicPlayerClientConfig.INSTANCE.maxOpenArchives));
+        if (oldPool != null) {
+            oldPool.closeAll();
+        }
     }
 
     public void discoverAndLoadPacks() {
-        LOGGER.info("Discovering and loading sound packs from: {}", SOUNDPACKS_BASE_DIR.toAbsolutePath());
+        discoverAndLoadPacks(PackScanProgress.NONE);
+    }
 
-        // 1. まず全てのサウンドパックをスキャンしてロード
-        closeAllZipFileSystems();
-        loadedSoundPacks.clear();
-        allMusicDefinitions.clear();
-        oggResourceMap.clear();
-        musicDefinitionByEventKey.clear();
-        // activeSoundPackIds はこの時点ではクリアせず、後で設定ファイルから読み込む
+    /**
+     * サウンドパックフォルダを走査し、見つかったパックで現在の状態を置き換えます。
+     * バックグラウンドスレッドから呼び出すことができ、進捗は {@code progress} に報告されます。
+     * 新しい状態は別に作ってから差し替えるので、差し替える前にキャンセルされた場合は現在の状態は変更されません。
+     *
+     * @return 新しいパックの状態が反映された場合は true、キャンセルされた場合は false
+     */
+    public boolean discoverAndLoadPacks(PackScanProgress progress) {
+        LOGGER.info("Discovering and loading sound packs from: {}", SOUNDPACKS_BASE_DIR.toAbsolutePath());
 
+        // 1. まず全てのサウンドパックのメタデータを読み込む (この段階では現在の状態を変更しない)
         if (!Files.exists(SOUNDPACKS_BASE_DIR)) {
             try {
                 Files.createDirectories(SOUNDPACKS_BASE_DIR);
@@ -90,80 +136,302 @@ public class SoundPackManager {
             // return;
         }
 
+        List<Path> packCandidates = new ArrayList<>();
         if (Files.isDirectory(SOUNDPACKS_BASE_DIR)) { // ディレクトリが存在する場合のみスキャン
             try (Stream<Path> packDirs = Files.list(SOUNDPACKS_BASE_DIR)) {
-                packDirs.filter(Files::isDirectory).forEach(this::loadSingleDirectorySoundPack);
+                packDirs.filter(Files::isDirectory).forEach(packCandidates::add);
             } catch (IOException e) {
                 LOGGER.error("Error listing sound pack directories in: {}", SOUNDPACKS_BASE_DIR.toAbsolutePath(), e);
             }
 
             try (Stream<Path> zipFiles = Files.list(SOUNDPACKS_BASE_DIR)) {
-                zipFiles.filter(p -> p.toString().toLowerCase().endsWith(".zip") && Files.isRegularFile(p))
-                        .forEach(this::loadSingleZipSoundPack);
+                // 索引付きの単一ファイルのパック (.mpack) も ZIP と同じくアーカイブとして読み込む
+                zipFiles.filter(p -> (p.toString().toLowerCase().endsWith(".zip") || IndexedPackArchive.isIndexedPackFile(p))
+                                && Files.isRegularFile(p))
+                        .forEach(packCandidates::add);
             } catch (IOException e) {
                 LOGGER.error("Error listing sound pack ZIP files in: {}", SOUNDPACKS_BASE_DIR.toAbsolutePath(), e);
             }
         }
-        LOGGER.info("Initial scan complete. Found {} potential sound packs.", loadedSoundPacks.size());
 
-        // 順序設定の読み込みとソート
-        List<String> loadedOrder = loadPackOrderConfig();
-        List<SoundPackInfo> sortedPacks = new ArrayList<>();
-        // まず loadedOrder に含まれるものを順番に追加
-        for (String id : loadedOrder) {
-            loadedSoundPacks.stream()
-                    .filter(p -> p.getId().equals(id))
-                    .findFirst()
-                    .ifPresent(sortedPacks::add);
-        }
-        // 次に、loadedOrder に含まれない（新しく追加された）ものを追加
-        for (SoundPackInfo pack : loadedSoundPacks) {
-            if (!sortedPacks.contains(pack)) {
-                sortedPacks.add(pack);
+        progress.setPacksTotal(packCandidates.size());
+        List<SoundPackInfo> scannedPacks = new ArrayList<>();
+        for (Path candidate : packCandidates) {
+            if (progress.isCancelled()) {
+                LOGGER.info("Sound pack scan cancelled after {} of {} packs. Keeping the current sound packs.",
+                        progress.getPacksScanned(), packCandidates.size());
+                return false;
             }
+            SoundPackInfo scanned = Files.isDirectory(candidate)
+                    ? loadSingleDirectorySoundPack(candidate)
+                    : loadSingleZipSoundPack(candidate);
+            if (scanned != null) {
+                scannedPacks.add(scanned);
+            } else {
+                progress.errorOccurred();
+            }
+            progress.packScanned();
         }
-        // loadedSoundPacks をソート済みのものに置き換え
-        this.loadedSoundPacks.clear();
-        this.loadedSoundPacks.addAll(sortedPacks);
+        LOGGER.info("Initial scan complete. Found {} potential sound packs.", scannedPacks.size());
 
-        // 最新の順序リストを packOrder に保存
-        this.packOrder = this.loadedSoundPacks.stream()
+        return applyScannedPacks(scannedPacks, progress);
+    }
+
+    /**
+     * 走査したパックとアクティブなパックの条件定義から新しい状態を作り、現在の状態と置き換えます。
+     *
+     * @return 置き換えた場合は true、途中でキャンセルされた場合は false
+     */
+    private synchronized boolean applyScannedPacks(List<SoundPackInfo> scannedPacks, PackScanProgress progress) {
+        this.reloading = true;
+        this.scanProgress = progress;
+        try {
+            return applyScannedPacksLogic(scannedPacks, progress);
+        } finally {
+            this.scanProgress = PackScanProgress.NONE;
+            this.reloading = false;
+        }
+    }
+
+    private boolean applyScannedPacksLogic(List<SoundPackInfo> scannedPacks, PackScanProgress progress) {
+        // 設定ファイルを読み直す前に、書き込み待ちの変更 (直前のパックの切り替えや並び替え) を書き込んでおく
+        configWriter.flush();
+        resetArchivePool();
+        // 新しい状態は差し替えるまで他のスレッドから見えないので、キャンセルされた場合は捨てるだけでよい
+        PackState newState = new PackState();
+        newState.loadedSoundPacks.addAll(scannedPacks);
+        rebuildPackIndex(newState);
+
+        // 順序設定の読み込みとソート (loadedOrder に含まれない、新しく追加されたものは末尾に並ぶ)
+        List<String> loadedOrder = loadPackOrderConfig();
+        sortLoadedPacks(newState, loadedOrder);
+
+        // 最新の順序リスト
+        List<String> newPackOrder = newState.loadedSoundPacks.stream()
                 .map(SoundPackInfo::getId)
                 .collect(Collectors.toCollection(CopyOnWriteArrayList::new));
-        savePackOrderConfig();
 
         // 2. 次に、設定ファイルから前回のアクティブなパックIDを読み込む
         List<String> configuredActiveIds = loadActivePacksConfig(); // 読み込んだIDを一時変数に
 
-        // 3. 最後に、読み込んだ設定とロードされたパック情報を照合
-        if (!loadedSoundPacks.isEmpty()) {
-            // 設定ファイルにあるIDのうち、現在ロードされているものだけを抽出（順序を維持）
-            this.activeSoundPackIds = configuredActiveIds.stream()
-                    .filter(id -> loadedSoundPacks.stream().anyMatch(pack -> pack.getId().equals(id)))
-                    .collect(Collectors.toCollection(CopyOnWriteArrayList::new));
+        // 3. 読み込んだ設定とロードされたパック情報を照合
+        //    設定ファイルにあるIDのうち、現在ロードされているものだけを抽出（順序を維持）
+        List<String> newActiveIds = configuredActiveIds.stream()
+                .filter(newState.packsById::containsKey)
+                .collect(Collectors.toCollection(CopyOnWriteArrayList::new));
 
-            if (configuredActiveIds.isEmpty()) {
-                LOGGER.info("No active packs in configuration. New packs will remain inactive until manually enabled.");
-            } else if (configuredActiveIds.size() != this.activeSoundPackIds.size()) {
-                LOGGER.warn("Some configured active packs were not found among loaded packs. Updated valid list.");
-                saveActivePacksConfig();
+        // 4. 条件定義はアクティブなパックの分だけ読み込む (非アクティブなパックは有効化された時に読み込む)
+        //    全パック登録モードでは切り替え時にリロードしないため、全てのパックを読み込んでおく
+        List<String> definitionPackIds = isRegisterAllPacksMode() ? newPackOrder : newActiveIds;
+        for (String packId : definitionPackIds) {
+            if (progress.isCancelled()) {
+                break;
             }
-        } else {
-            this.activeSoundPackIds.clear();
+            loadPackDefinitionsIfNeeded(newState, packId);
+        }
+        if (progress.isCancelled() || !analyzeLoadedAudio(newState)) {
+            LOGGER.info("Sound pack reload cancelled while loading definitions ({} parsed). Keeping the current sound packs.",
+                    progress.getDefinitionsParsed());
+            return false;
+        }
+
+        // 5. 完成した状態をまとめて差し替える
+        this.state = newState;
+        this.packOrder = newPackOrder;
+        rebuildPackRanks();
+        this.activeSoundPackIds = newActiveIds;
+        rebuildActivePackIdSet();
+        trackPrefetcher.clear();
+        recentAudioCache.clear();
+        savePackOrderConfig();
+
+        if (newState.loadedSoundPacks.isEmpty()) {
             LOGGER.info("No sound packs loaded.");
+        } else if (configuredActiveIds.isEmpty()) {
+            LOGGER.info("No active packs in configuration. New packs will remain inactive until manually enabled.");
+        } else if (configuredActiveIds.size() != newActiveIds.size()) {
+            LOGGER.warn("Some configured active packs were not found among loaded packs. Updated valid list.");
+            saveActivePacksConfig();
+        }
+
+        LOGGER.info("Finished processing sound packs. Loaded: {} packs ({} with definitions), {} music definitions. Active/Configured count: {}",
+                newState.loadedSoundPacks.size(), newState.definitionsLoadedPackIds.size(), newState.allMusicDefinitions.size(), newActiveIds.size());
+        return true;
+    }
+
+    /**
+     * パックの条件定義がまだ読み込まれていなければ読み込みます。
+     * 起動時は非アクティブなパックのメタデータ (pack.mcmeta, アイコン, assetId) しか読み込まないため、
+     * パックが有効化された時点でこのメソッドを呼び出します。
+     */
+    public synchronized void ensurePackDefinitionsLoaded(String packId) {
+        PackState current = this.state;
+        if (loadPackDefinitionsIfNeeded(current, packId)) {
+            analyzeLoadedAudio(current);
+        }
+    }
+
+    /**
+     * 新しく読み込んだ定義の OGG を調べます (同じ内容の OGG をまとめ、ヘッダーを読んで再生できないものを除く)。
+     * 定義を読み込む全ての経路から、読み込みの後に呼び出します。
+     *
+     * @return 最後まで調べた場合は true、パックの読み込みがキャンセルされて途中でやめた場合は false
+     */
+    private synchronized boolean analyzeLoadedAudio(PackState state) {
+        return deduplicateAudio(state) && scanAudioHeaders(state);
+    }
+
+    public boolean isPackDefinitionsLoaded(String packId) {
+        return state.definitionsLoadedPackIds.contains(packId);
+    }
+
+    /**
+     * @return 新しく条件定義を読み込んだ場合は true
+     */
+    private synchronized boolean loadPackDefinitionsIfNeeded(PackState state, String packId) {
+        if (state.definitionsLoadedPackIds.contains(packId)) {
+            return false;
+        }
+        SoundPackInfo soundPackInfo = state.packsById.get(packId);
+        if (soundPackInfo == null) {
+            LOGGER.warn("Cannot load definitions for unknown sound pack: {}", packId);
+            return false;
+        }
+        state.definitionsLoadedPackIds.add(packId);
+
+        if (!soundPackInfo.isArchive()) {
+            loadPackDefinitions(new DirectoryPackContainer(soundPackInfo.getSourcePath()), soundPackInfo, state);
+            return true;
+        }
+        try (PackArchivePool.Lease lease = getArchivePool().acquire(soundPackInfo.getSourcePath())) {
+            loadPackDefinitions(lease.container(), soundPackInfo, state);
+        } catch (IOException e) {
+            LOGGER.error("Failed to open ZIP sound pack '{}' to load its definitions: {}", packId, soundPackInfo.getSourcePath(), e);
+        }
+        return true;
+    }
+
+    /**
+     * 同じ内容の OGG を一つのリソースにまとめます (設定で有効な場合のみ)。
+     * まだハッシュを確認していない定義の OGG を並列にハッシュし、同じハッシュを持つ定義は最初に見つかった定義の
+     * リソースを使うようにして、使われなくなったリソースを oggResourceMap から取り除きます。
+     *
+     * @return パックの読み込みがキャンセルされて途中でやめた場合は false
+     */
+    private synchronized boolean deduplicateAudio(PackState state) {
+        if (!MusicPlayerClientConfig.getOrDefault(MusicPlayerClientConfig.INSTANCE.dedupeIdenticalAudio)) {
+            return true;
+        }
+        List<MusicDefinition> unhashed = state.allMusicDefinitions.stream()
+                .filter(def -> !state.audioHashByEventKey.containsKey(def.getSoundEventKey()))
+                .toList();
+        if (unhashed.isEmpty()) {
+            return true;
+        }
+        PackArchivePool pool = getArchivePool();
+        Map<String, String> hashes = new ConcurrentHashMap<>();
+        PackScanProgress progress = this.scanProgress;
+        unhashed.parallelStream().forEach(def -> {
+            if (progress.isCancelled()) {
+                return;
+            }
+            PackResourceHandle handle = state.oggResourceMap.get(getOggResourceMapKey(def.getSoundEventKey()));
+            String hash = handle != null ? audioFileCache.getOrComputeHash(handle, pool) : null;
+            if (hash != null) {
+                hashes.put(def.getSoundEventKey(), hash);
+            }
+        });
+        // 途中までの結果もキャッシュとしては正しいので保存しておく
+        audioFileCache.save();
+        if (progress.isCancelled()) {
+            return false;
         }
 
-        LOGGER.info("Finished processing sound packs. Loaded: {} packs, {} music definitions. Active/Configured count: {}",
-                loadedSoundPacks.size(), allMusicDefinitions.size(), this.activeSoundPackIds.size());
+        // 読み込み順で最初の定義のリソースを残す
+        int shared = 0;
+        for (MusicDefinition def : unhashed) {
+            String hash = hashes.get(def.getSoundEventKey());
+            if (hash == null) {
+                continue;
+            }
+            state.audioHashByEventKey.put(def.getSoundEventKey(), hash);
+            ResourceLocation canonical = state.audioLocationByHash.putIfAbsent(hash, def.getOggResourceLocation());
+            if (canonical != null && !canonical.equals(def.getOggResourceLocation())) {
+                state.sharedAudioByEventKey.put(def.getSoundEventKey(), canonical);
+                state.oggResourceMap.remove(getOggResourceMapKey(def.getSoundEventKey()));
+                shared++;
+            }
+        }
+        LOGGER.info("Hashed {} sound files; {} share their audio with another definition.", hashes.size(), shared);
+        return true;
+    }
+
+    /**
+     * まだ調べていない定義の OGG のヘッダー (チャンネル数・サンプリングレート・再生時間) を並列に読みます。
+     * 結果はキャッシュに保存されるので、ファイルが変わらない限り次回以降はファイルを読みません。
+     * 再生できないファイルを使う定義は警告を出し、曲の選択の対象から外します。
+     *
+     * @return パックの読み込みがキャンセルされて途中でやめた場合は false
+     */
+    private synchronized boolean scanAudioHeaders(PackState state) {
+        List<MusicDefinition> unscanned = state.allMusicDefinitions.stream()
+                .filter(def -> !state.audioInfoByEventKey.containsKey(def.getSoundEventKey()))
+                .toList();
+        if (unscanned.isEmpty()) {
+            return true;
+        }
+        PackArchivePool pool = getArchivePool();
+        long start = System.nanoTime();
+        Map<String, OggInfo> infos = new ConcurrentHashMap<>();
+        PackScanProgress progress = this.scanProgress;
+        unscanned.parallelStream().forEach(def -> {
+            if (progress.isCancelled()) {
+                return;
+            }
+            // 同じ内容の OGG がまとめられている場合は、実際に使うリソースを調べる
+            PackResourceHandle handle = state.oggResourceMap.get(getOggResourceMapKey(def.getSoundEventKey()));
+            if (handle == null) {
+                handle = state.oggResourceMap.get(getOggResourceMapKey(getAudioLocation(state, def).getPath()));
+            }
+            OggInfo info = handle != null ? audioFileCache.getOrReadInfo(handle, pool) : null;
+            if (info != null) {
+                infos.put(def.getSoundEventKey(), info);
+            }
+        });
+        audioFileCache.save();
+        if (progress.isCancelled()) {
+            return false;
+        }
+
+        int invalid = 0;
+        for (MusicDefinition def : unscanned) {
+            OggInfo info = infos.get(def.getSoundEventKey());
+            if (info == null) {
+                continue;
+            }
+            if (!info.isValid()) {
+                LOGGER.warn("Sound file {} for definition {} cannot be played: {}", def.getOggEntry(), def.getSoundEventKey(), info.error());
+                invalid++;
+            }
+            state.audioInfoByEventKey.put(def.getSoundEventKey(), info);
+        }
+        if (invalid > 0) {
+            invalidateActiveDefinitions();
+        }
+        LOGGER.info("Read the headers of {} sound files in {} ms ({} cannot be played).",
+                infos.size(), (System.nanoTime() - start) / 1_000_000, invalid);
+        return true;
     }
 
     private List<String> loadActivePacksConfig() { // 戻り値をList<String>に変更
         Path configFile = CONFIG_DIR.resolve(ACTIVE_PACKS_CONFIG_FILE_NAME);
         List<String> loadedIds = new ArrayList<>(); // 設定の読み込み時は標準のArrayListでOK
         if (Files.exists(configFile) && Files.isRegularFile(configFile)) {
-            try (Reader reader = Files.newBufferedReader(configFile, StandardCharsets.UTF_8)) {
+            try {
+                String content = Files.readString(configFile, StandardCharsets.UTF_8);
+                configWriter.markPersisted(configFile, content); // 同じ内容なら保存時に書き込みを省く
                 Type listType = new TypeToken<ArrayList<String>>() {}.getType();
-                List<String> parsedIds = GSON.fromJson(reader, listType);
+                List<String> parsedIds = GSON.fromJson(content, listType);
                 if (parsedIds != null) {
                     loadedIds.addAll(parsedIds);
                     LOGGER.info("Loaded active sound pack configuration from {}: {}", configFile.toAbsolutePath(), loadedIds);
@@ -181,26 +449,20 @@ public class SoundPackManager {
 
     private void saveActivePacksConfig() {
         Path configFile = CONFIG_DIR.resolve(ACTIVE_PACKS_CONFIG_FILE_NAME);
-        try {
-            if (!Files.exists(CONFIG_DIR)) {
-                Files.createDirectories(CONFIG_DIR);
-            }
-            try (Writer writer = Files.newBufferedWriter(configFile, StandardCharsets.UTF_8)) {
-                GSON.toJson(this.activeSoundPackIds, writer); // 保存するのは現在の SoundPackManager の activeSoundPackIds
-                LOGGER.info("Saved active sound pack configuration to {}: {}", configFile.toAbsolutePath(), this.activeSoundPackIds);
-            }
-        } catch (IOException e) {
-            LOGGER.error("Failed to save active sound pack configuration file: {}", configFile.toAbsolutePath(), e);
-        }
+        // 内容はここで確定させ、書き込み自体は書き込みスレッドに任せる
+        configWriter.write(configFile, GSON.toJson(this.activeSoundPackIds)); // 保存するのは現在の SoundPackManager の activeSoundPackIds
+        LOGGER.info("Queued active sound pack configuration for {}: {}", configFile.toAbsolutePath(), this.activeSoundPackIds);
     }
 
     private List<String> loadPackOrderConfig() {
         Path configFile = CONFIG_DIR.resolve(PACK_ORDER_CONFIG_FILE_NAME);
         List<String> loadedIds = new ArrayList<>();
         if (Files.exists(configFile) && Files.isRegularFile(configFile)) {
-            try (Reader reader = Files.newBufferedReader(configFile, StandardCharsets.UTF_8)) {
+            try {
+                String content = Files.readString(configFile, StandardCharsets.UTF_8);
+                configWriter.markPersisted(configFile, content);
                 Type listType = new TypeToken<ArrayList<String>>() {}.getType();
-                List<String> parsedIds = GSON.fromJson(reader, listType);
+                List<String> parsedIds = GSON.fromJson(content, listType);
                 if (parsedIds != null) {
                     loadedIds.addAll(parsedIds);
                     LOGGER.info("Loaded sound pack order configuration from {}: {}", configFile.toAbsolutePath(), loadedIds);
@@ -214,101 +476,88 @@ public class SoundPackManager {
 
     private void savePackOrderConfig() {
         Path configFile = CONFIG_DIR.resolve(PACK_ORDER_CONFIG_FILE_NAME);
-        try {
-            if (!Files.exists(CONFIG_DIR)) {
-                Files.createDirectories(CONFIG_DIR);
-            }
-            try (Writer writer = Files.newBufferedWriter(configFile, StandardCharsets.UTF_8)) {
-                GSON.toJson(this.packOrder, writer);
-                LOGGER.info("Saved sound pack order configuration to {}: {}", configFile.toAbsolutePath(), this.packOrder);
-            }
-        } catch (IOException e) {
-            LOGGER.error("Failed to save sound pack order configuration file: {}", configFile.toAbsolutePath(), e);
-        }
+        configWriter.write(configFile, GSON.toJson(this.packOrder));
+        LOGGER.debug("Queued sound pack order configuration for {}: {}", configFile.toAbsolutePath(), this.packOrder);
     }
 
-    private void loadSingleDirectorySoundPack(Path packRootDir) {
+    @Nullable
+    private SoundPackInfo loadSingleDirectorySoundPack(Path packRootDir) {
         String displayName = packRootDir.getFileName().toString();
         LOGGER.info("Processing directory sound pack: '{}'", displayName);
-        loadSingleSoundPackLogic(packRootDir, displayName, false);
+        return loadSingleSoundPackLogic(new DirectoryPackContainer(packRootDir), packRootDir, displayName, false);
     }
 
-    private void loadSingleZipSoundPack(Path zipFilePath) {
+    @Nullable
+    private SoundPackInfo loadSingleZipSoundPack(Path zipFilePath) {
         String zipFileName = zipFilePath.getFileName().toString();
         String displayName = zipFileName.substring(0, zipFileName.lastIndexOf('.'));
         LOGGER.info("Processing ZIP sound pack: '{}' (from file: {})", displayName, zipFileName);
-        try {
-            FileSystem zipFs = FileSystems.newFileSystem(zipFilePath, Collections.emptyMap());
-            this.openZipFileSystems.add(zipFs);
-            Path packRootInZip = zipFs.getPath("/");
-            loadSingleSoundPackLogic(packRootInZip, displayName, true);
-        } catch (ProviderNotFoundException e) {
-            LOGGER.error("  ZIP file system provider not found for {}. This should not happen with standard Java.", zipFilePath, e);
-        } catch (FileSystemAlreadyExistsException e) {
-            LOGGER.warn("  FileSystem already exists for {}. This might indicate a bug or an unclosed FileSystem.", zipFilePath, e);
-        }
-        catch (IOException e) {
+        // 読み込み中だけピン留めし、終わったらプールの LRU に任せる
+        try (PackArchivePool.Lease lease = getArchivePool().acquire(zipFilePath)) {
+            return loadSingleSoundPackLogic(lease.container(), zipFilePath, displayName, true);
+        } catch (IOException e) {
             LOGGER.error("  Failed to open or read ZIP sound pack: '{}'", zipFilePath, e);
+            return null;
         }
     }
 
 
-    private void loadSingleSoundPackLogic(Path packRootPathInFs, String baseDisplayName, boolean isZip) {
+    private static Reader newReader(PackContainer container, String entryPath) throws IOException {
+        return new BufferedReader(new InputStreamReader(container.open(entryPath), StandardCharsets.UTF_8));
+    }
+
+    @Nullable
+    private SoundPackInfo loadSingleSoundPackLogic(PackContainer container, Path sourcePath, String baseDisplayName, boolean isZip) {
         String internalId = baseDisplayName.toLowerCase().replaceAll("[^a-z0-9_.-]", "_");
         if (internalId.isEmpty()) {
             LOGGER.error("  Generated internal ID for pack '{}' is empty. Skipping.", baseDisplayName);
-            return;
+            return null;
         }
         LOGGER.info("  Internal ID: {}, Base Display Name: {}, IsZip: {}", internalId, baseDisplayName, isZip);
 
-        Path mcmetaPath = packRootPathInFs.resolve(PACK_METADATA_FILE);
-        if (!Files.exists(mcmetaPath) || !Files.isRegularFile(mcmetaPath)) {
+        if (!container.isFile(PACK_METADATA_FILE)) {
             LOGGER.warn("  Missing {} in pack: '{}'. Skipping this pack.", PACK_METADATA_FILE, baseDisplayName);
-            return;
+            return null;
         }
 
         SoundPackInfo soundPackInfo;
         String assetId;
 
-        try (Reader reader = Files.newBufferedReader(mcmetaPath, StandardCharsets.UTF_8)) {
+        try (Reader reader = newReader(container, PACK_METADATA_FILE)) {
             JsonObject root = JsonParser.parseReader(reader).getAsJsonObject();
             JsonObject packMeta = root.getAsJsonObject("pack");
             if (packMeta == null) {
                 LOGGER.warn("  Invalid {} format (missing 'pack' object) in pack: '{}'. Skipping.", PACK_METADATA_FILE, baseDisplayName);
-                return;
+                return null;
             }
 
-            Path assetsDir = packRootPathInFs.resolve("assets");
-            if (!Files.exists(assetsDir) || !Files.isDirectory(assetsDir)) {
+            if (!container.isDirectory("assets")) {
                 LOGGER.warn("  Missing 'assets' directory in pack: '{}'. Skipping.", baseDisplayName);
-                return;
+                return null;
             }
 
             List<String> assetSubDirs;
-            try (Stream<Path> stream = Files.list(assetsDir)) {
-                assetSubDirs = stream
-                        .filter(Files::isDirectory)
-                        .map(path -> path.getFileName().toString())
-                        .collect(Collectors.toList());
+            try {
+                assetSubDirs = container.listChildDirectories("assets");
             } catch (IOException e) {
                 LOGGER.error("  Failed to list subdirectories in 'assets' for pack: '{}'. Skipping.", baseDisplayName, e);
-                return;
+                return null;
             }
 
             if (assetSubDirs.isEmpty()) {
                 LOGGER.warn("  No subdirectories found in 'assets' directory for pack: '{}'. Cannot determine assetId. Skipping.", baseDisplayName);
-                return;
+                return null;
             }
             if (assetSubDirs.size() > 1) {
                 LOGGER.warn("  Multiple subdirectories found in 'assets' directory for pack: '{}' ({}). Cannot determine unique assetId. Skipping.", baseDisplayName, assetSubDirs);
-                return;
+                return null;
             }
             assetId = assetSubDirs.get(0);
             LOGGER.info("  Automatically determined assetId: '{}' for pack: '{}'", assetId, baseDisplayName);
 
             if (!assetId.matches("[a-z0-9_.-]+")) {
                 LOGGER.warn("  Automatically determined Asset ID '{}' for pack '{}' contains invalid characters. Only lowercase a-z, 0-9, '_', '.', '-' are allowed. Skipping.", assetId, baseDisplayName);
-                return;
+                return null;
             }
 
             String descriptionText = packMeta.has("description") ? packMeta.get("description").getAsString() : "No description for " + baseDisplayName;
@@ -316,7 +565,7 @@ public class SoundPackManager {
 
             if (packFormat == -1) {
                 LOGGER.warn("  Missing 'pack_format' in {} for pack: '{}'. Skipping.", PACK_METADATA_FILE, baseDisplayName);
-                return;
+                return null;
             }
 
             soundPackInfo = new SoundPackInfo(
@@ -325,100 +574,109 @@ public class SoundPackManager {
                     assetId,
                     Component.literal(descriptionText),
                     packFormat,
-                    packRootPathInFs
+                    sourcePath,
+                    isZip
             );
 
-            Path iconPhysicalPath = packRootPathInFs.resolve("pack.png");
-            if (Files.exists(iconPhysicalPath) && Files.isRegularFile(iconPhysicalPath)) {
-                soundPackInfo.setIconFileSystemPath(iconPhysicalPath);
+            long iconSize = container.size("pack.png");
+            if (iconSize >= 0) {
+                soundPackInfo.setIconResource(PackResourceHandle.of(soundPackInfo.entry("pack.png"), iconSize));
                 try {
                     ResourceLocation iconRl = ResourceLocation.fromNamespaceAndPath(Music_Player.MOD_ID, internalId + "/pack.png");
                     soundPackInfo.setIconLocation(iconRl);
-                    LOGGER.info("  Set pack icon RL: {} with physical path: {}", iconRl, iconPhysicalPath);
+                    LOGGER.info("  Set pack icon RL: {} with entry: {}", iconRl, soundPackInfo.getIconResource());
                 } catch (ResourceLocationException e) {
                     LOGGER.warn("  Could not create RL for pack icon (InternalID '{}'): {}", internalId, e.getMessage());
                 }
             } else {
-                LOGGER.info("  No pack.png found for pack (InternalID '{}') at: {}", internalId, iconPhysicalPath);
+                LOGGER.info("  No pack.png found for pack (InternalID '{}') at: {}", internalId, soundPackInfo.entry("pack.png"));
             }
 
-            loadedSoundPacks.add(soundPackInfo); // ここで loadedSoundPacks に追加
             LOGGER.info("  Loaded SoundPack: DisplayName='{}', AssetID='{}' (auto-detected), Format: {}, InternalID='{}', IsZip: {}",
                     baseDisplayName, soundPackInfo.getAssetId(), packFormat, internalId, isZip);
+            return soundPackInfo; // 呼び出し元でまとめて loadedSoundPacks に反映する
 
         } catch (JsonParseException | IOException e) {
             LOGGER.error("  Failed to read or parse {} for pack: '{}'", PACK_METADATA_FILE, baseDisplayName, e);
-            return;
         } catch (Exception e) {
             LOGGER.error("  Unexpected error while processing metadata for pack: '{}'", baseDisplayName, e);
-            return;
         }
+        // MusicDefinitionのロードは ensurePackDefinitionsLoaded でパックが有効化された時に行う
+        return null;
+    }
 
-        // MusicDefinitionのロードはSoundPackInfoが確定した後
-        LOGGER.debug("  SoundPackInfo for conditions: InternalID='{}', AssetID='{}', PackRoot='{}'",
-                soundPackInfo.getId(), soundPackInfo.getAssetId(), soundPackInfo.getPackRootPath());
-        Path conditionsDir = soundPackInfo.getAssetsDirectory().resolve(CONDITIONS_DIR_NAME);
-        LOGGER.info("  Attempting to load conditions from: {}", conditionsDir);
+    private void loadPackDefinitions(PackContainer container, SoundPackInfo soundPackInfo, PackState state) {
+        LOGGER.debug("  SoundPackInfo for conditions: InternalID='{}', AssetID='{}', Source='{}'",
+                soundPackInfo.getId(), soundPackInfo.getAssetId(), soundPackInfo.getSourcePath());
+        String conditionsDir = soundPackInfo.getAssetsEntryPrefix() + CONDITIONS_DIR_NAME;
+        LOGGER.info("  Attempting to load conditions from: {}", soundPackInfo.entry(conditionsDir));
 
-        if (!Files.exists(conditionsDir) || !Files.isDirectory(conditionsDir)) {
-            LOGGER.info("  No conditions directory found at: {}. No music definitions will be loaded for this pack.", conditionsDir);
+        if (!container.isDirectory(conditionsDir)) {
+            LOGGER.info("  No conditions directory found at: {}. No music definitions will be loaded for this pack.", soundPackInfo.entry(conditionsDir));
             return;
         }
 
-        try (Stream<Path> jsonFiles = Files.walk(conditionsDir)) {
-            jsonFiles.filter(p -> p.toString().endsWith(".json") && Files.isRegularFile(p))
-                    .forEach(jsonPath -> loadMusicDefinition(jsonPath, soundPackInfo));
+        DefinitionFootprint footprint = new DefinitionFootprint();
+        try {
+            List<String> conditionFiles = container.listFiles(conditionsDir).stream()
+                    .filter(entryPath -> entryPath.endsWith(".json"))
+                    .toList();
+            // PackCompiler で作った索引が最新なら、検証済みの定義をまとめて読み込む
+            PackIndex index = PackIndex.readIfCurrent(container, GSON, soundPackInfo.getAssetId(), conditionFiles,
+                    soundPackInfo.isArchive() ? null : soundPackInfo.getSourcePath());
+            if (index != null) {
+                LOGGER.info("  Using precompiled index {} for pack '{}' ({} definitions)",
+                        PackIndex.FILE_NAME, soundPackInfo.getId(), index.definitions.size());
+                for (PackIndex.Entry entry : index.definitions) {
+                    if (scanProgress.isCancelled()) {
+                        break;
+                    }
+                    if (registerMusicDefinition(entry.definition, soundPackInfo.entry(entry.source), entry.musicSize, soundPackInfo, footprint, state)) {
+                        scanProgress.definitionParsed();
+                    } else {
+                        scanProgress.errorOccurred();
+                    }
+                }
+            } else {
+                for (String jsonEntry : conditionFiles) {
+                    if (scanProgress.isCancelled()) {
+                        break;
+                    }
+                    if (loadMusicDefinition(jsonEntry, container, soundPackInfo, footprint, state)) {
+                        scanProgress.definitionParsed();
+                    } else {
+                        scanProgress.errorOccurred();
+                    }
+                }
+            }
         } catch (IOException e) {
             LOGGER.error("  Error walking conditions directory {} for pack with AssetID '{}': {}", conditionsDir, soundPackInfo.getAssetId(), e.getMessage(), e);
         }
+        if (footprint.getDefinitions() > 0) {
+            LOGGER.info("  Definition heap estimate for pack '{}': {} definitions, ~{} bytes as parsed, ~{} bytes compacted ({}% saved)",
+                    soundPackInfo.getId(), footprint.getDefinitions(), footprint.getParsedBytes(), footprint.getCompiledBytes(), footprint.getSavedPercent());
+        }
     }
 
-    private void loadMusicDefinition(Path jsonPath, SoundPackInfo soundPackInfo) {
-        try (Reader reader = Files.newBufferedReader(jsonPath, StandardCharsets.UTF_8)) {
-            MusicDefinition definition = GSON.fromJson(reader, MusicDefinition.class);
-            if (definition == null || definition.musicFileInPack == null || definition.musicFileInPack.isBlank()) {
+    private boolean loadMusicDefinition(String jsonEntry, PackContainer container, SoundPackInfo soundPackInfo, DefinitionFootprint footprint,
+                                        PackState state) {
+        PackEntryRef jsonPath = soundPackInfo.entry(jsonEntry);
+        try (Reader reader = newReader(container, jsonEntry)) {
+            MusicDefinitionJson json = GSON.fromJson(reader, MusicDefinitionJson.class);
+            if (json == null || json.musicFileInPack == null || json.musicFileInPack.isBlank()) {
                 LOGGER.warn("  Invalid or incomplete music definition in file: {}. Missing 'musicFileInPack' field.", jsonPath);
-                return;
+                return false;
             }
-            definition.setSoundPackId(soundPackInfo.getId());
 
-            Path absoluteOggPath = soundPackInfo.getAssetsDirectory().resolve(definition.getMusicFileInPack());
-            if (!Files.exists(absoluteOggPath) || !Files.isRegularFile(absoluteOggPath)) {
+            PackEntryRef oggEntry = soundPackInfo.entry(soundPackInfo.getAssetsEntryPrefix() + json.musicFileInPack);
+            // 存在とサイズはここで一度だけ確認し、以降のリソース要求ではファイルシステムに問い合わせない
+            long oggSize = container.size(oggEntry.entryPath());
+            if (oggSize < 0) {
                 LOGGER.warn("  Sound file not found for definition in {}: {} (Expected at {})",
-                        jsonPath.getFileName(), definition.getMusicFileInPack(), absoluteOggPath);
-                return;
-            }
-            definition.setAbsoluteOggPath(absoluteOggPath);
-
-            String assetId = soundPackInfo.getAssetId();
-            String relativeOggPathFromPackAssets = definition.getMusicFileInPack();
-            String soundEventKey = getSoundEventKey(relativeOggPathFromPackAssets, assetId);
-            definition.setSoundEventKey(soundEventKey);
-
-            try {
-                ResourceLocation oggRLForName = ResourceLocation.fromNamespaceAndPath(Music_Player.MOD_ID, soundEventKey);
-                definition.setOggResourceLocation(oggRLForName);
-
-                String mapKeyPath = OGG_RESOURCE_SOUNDS_PREFIX + soundEventKey + ".ogg";
-                ResourceLocation mapKeyRL = ResourceLocation.fromNamespaceAndPath(Music_Player.MOD_ID, mapKeyPath);
-                oggResourceMap.put(mapKeyRL, absoluteOggPath);
-
-                if (definition.isValid()) {
-                    allMusicDefinitions.add(definition);
-                    musicDefinitionByEventKey.put(definition.getSoundEventKey(), definition);
-                    LOGGER.debug("  Loaded music definition: File='{}', EventKey='{}', NameRL='{}', MapKeyRL='{}', OggPath='{}'",
-                            definition.getMusicFileInPack(),
-                            definition.getSoundEventKey(),
-                            definition.getOggResourceLocation(),
-                            mapKeyRL,
-                            absoluteOggPath);
-                } else {
-                    LOGGER.warn("  Music definition from {} was parsed but deemed invalid. Def: {}", jsonPath, definition);
-                }
-            } catch (ResourceLocationException e) {
-                LOGGER.warn("  Invalid RL components for AssetID '{}', file '{}'. Skipping. Error: {}",
-                        assetId, relativeOggPathFromPackAssets, e.getMessage());
+                        jsonEntry, json.musicFileInPack, oggEntry);
+                return false;
             }
+            return registerMusicDefinition(json, jsonPath, oggSize, soundPackInfo, footprint, state);
         } catch (JsonSyntaxException e) {
             LOGGER.error("  Failed to parse JSON for music definition file: {}", jsonPath, e);
         } catch (IOException e) {
@@ -426,9 +684,58 @@ public class SoundPackManager {
         } catch (Exception e) {
             LOGGER.error("  Unexpected error processing music definition file: {}", jsonPath, e);
         }
+        return false;
     }
 
-    private static @NotNull String getSoundEventKey(String relativeOggPathFromPackAssets, String assetId) {
+    /**
+     * 読み込んだ条件定義をコンパクトな形に変換して登録します。OGG の存在とサイズは呼び出し元で確認済みです。
+     */
+    private boolean registerMusicDefinition(MusicDefinitionJson json, PackEntryRef jsonPath, long oggSize,
+                                            SoundPackInfo soundPackInfo, DefinitionFootprint footprint, PackState state) {
+        PackEntryRef oggEntry = soundPackInfo.entry(soundPackInfo.getAssetsEntryPrefix() + json.musicFileInPack);
+        String assetId = soundPackInfo.getAssetId();
+        String relativeOggPathFromPackAssets = json.musicFileInPack;
+        String soundEventKey = getSoundEventKey(relativeOggPathFromPackAssets, assetId);
+
+        try {
+            ResourceLocation oggRLForName = ResourceLocation.fromNamespaceAndPath(Music_Player.MOD_ID, soundEventKey);
+            // JSON の入れ物はここで捨て、コンパクトな形だけを保持する
+            MusicDefinition definition = MusicDefinition.compile(json, state.definitionInterner, soundPackInfo.getId(),
+                    oggEntry, soundEventKey, oggRLForName);
+
+            ResourceLocation mapKeyRL = getOggResourceMapKey(soundEventKey);
+            state.oggResourceMap.put(mapKeyRL, PackResourceHandle.of(oggEntry, oggSize));
+
+            if (definition.isValid()) {
+                // 削減率が正しくなるよう、保持する定義についてだけ両方の大きさを数える
+                footprint.addParsed(json);
+                footprint.addCompiled(definition);
+                state.allMusicDefinitions.add(definition);
+                invalidateActiveDefinitions();
+                state.musicDefinitionByEventKey.put(definition.getSoundEventKey(), definition);
+                LOGGER.debug("  Loaded music definition: File='{}', EventKey='{}', NameRL='{}', MapKeyRL='{}', OggEntry='{}'",
+                        definition.getMusicFileInPack(),
+                        definition.getSoundEventKey(),
+                        definition.getOggResourceLocation(),
+                        mapKeyRL,
+                        oggEntry);
+            } else {
+                LOGGER.warn("  Music definition from {} was parsed but deemed invalid. Def: {}", jsonPath, definition);
+                return false;
+            }
+            return true;
+        } catch (ResourceLocationException e) {
+            LOGGER.warn("  Invalid RL components for AssetID '{}', file '{}'. Skipping. Error: {}",
+                    assetId, relativeOggPathFromPackAssets, e.getMessage());
+            return false;
+        }
+    }
+
+    private static ResourceLocation getOggResourceMapKey(String soundEventKey) {
+        return ResourceLocation.fromNamespaceAndPath(Music_Player.MOD_ID, OGG_RESOURCE_SOUNDS_PREFIX + soundEventKey + ".ogg");
+    }
+
+    static @NotNull String getSoundEventKey(String relativeOggPathFromPackAssets, String assetId) {
         String pathWithoutExtension = relativeOggPathFromPackAssets;
         if (pathWithoutExtension.toLowerCase().endsWith(".ogg")) {
             pathWithoutExtension = pathWithoutExtension.substring(0, pathWithoutExtension.length() - 4);
@@ -438,23 +745,160 @@ public class SoundPackManager {
                 .replaceAll("[^a-z0-9_./-]", "_");
     }
 
+    /**
+     * 定義の OGG のヘッダーの情報。まだ読んでいない場合や読み込めなかった場合は null です。
+     */
+    @Nullable
+    public OggInfo getAudioInfo(String soundEventKey) {
+        return state.audioInfoByEventKey.get(soundEventKey);
+    }
+
+    /**
+     * 定義の OGG が再生できないと分かっている場合は false です (まだ調べていない場合は true)。
+     */
+    public boolean isAudioPlayable(MusicDefinition definition) {
+        OggInfo info = state.audioInfoByEventKey.get(definition.getSoundEventKey());
+        return info == null || info.isValid();
+    }
+
+    public TrackPrefetcher getTrackPrefetcher() {
+        return trackPrefetcher;
+    }
+
+    public RecentAudioCache getRecentAudioCache() {
+        return recentAudioCache;
+    }
+
+    /**
+     * OGG リソースのストリームを開きます。最近再生した曲はメモリから、先読みした曲は先頭だけメモリから返します。
+     * キャッシュに無いアーカイブ内の曲は、次の再生のためにバックグラウンドで全体を読み込みます。
+     */
+    public InputStream openAudio(ResourceLocation location, PackResourceHandle handle, PackArchivePool archivePool) throws IOException {
+        long capacityBytes = MusicPlayerClientConfig.getOrDefault(MusicPlayerClientConfig.INSTANCE.recentAudioCacheKb) * 1024L;
+        if (capacityBytes > 0) {
+            InputStream cached = recentAudioCache.open(location, handle);
+            if (cached != null) {
+                return cached;
+            }
+            recentAudioCache.loadInBackground(location, handle, archivePool, capacityBytes);
+        }
+        return trackPrefetcher.open(location, handle, archivePool);
+    }
+
+    /**
+     * 曲の切り替わりを記録し、次に再生されそうな曲の OGG の先頭をバックグラウンドで先読みします。
+     */
+    public void onMusicTransition(@Nullable String fromSoundEventKey, String toSoundEventKey) {
+        List<String> predictions = trackPrefetcher.recordTransition(fromSoundEventKey, toSoundEventKey);
+        long capacityBytes = MusicPlayerClientConfig.getOrDefault(MusicPlayerClientConfig.INSTANCE.prefetchCacheKb) * 1024L;
+        for (String predicted : predictions) {
+            MusicDefinition def = state.musicDefinitionByEventKey.get(predicted);
+            if (def == null || !isAudioPlayable(def)) {
+                continue;
+            }
+            ResourceLocation resourceKey = getOggResourceMapKey(getAudioLocation(def).getPath());
+            PackResourceHandle handle = state.oggResourceMap.get(resourceKey);
+            if (handle != null) {
+                trackPrefetcher.prefetch(resourceKey, handle, getArchivePool(), capacityBytes);
+            }
+        }
+    }
+
     public MusicDefinition getMusicDefinitionByEventKey(String eventKey) {
-        return musicDefinitionByEventKey.get(eventKey);
+        return state.musicDefinitionByEventKey.get(eventKey);
+    }
+
+    /**
+     * 定義の OGG を提供するリソース。同じ内容の OGG がまとめられている場合は、最初に読み込まれた定義のリソースです。
+     */
+    public ResourceLocation getAudioLocation(MusicDefinition definition) {
+        return getAudioLocation(this.state, definition);
+    }
+
+    private static ResourceLocation getAudioLocation(PackState state, MusicDefinition definition) {
+        return state.sharedAudioByEventKey.getOrDefault(definition.getSoundEventKey(), definition.getOggResourceLocation());
+    }
+
+    /**
+     * 二つのサウンドイベントが同じ音声 (同じリソース) を再生するかどうか。
+     */
+    public boolean isSameAudio(@Nullable String soundEventKeyA, @Nullable String soundEventKeyB) {
+        if (soundEventKeyA == null || soundEventKeyB == null) {
+            return false;
+        }
+        MusicDefinition a = state.musicDefinitionByEventKey.get(soundEventKeyA);
+        MusicDefinition b = state.musicDefinitionByEventKey.get(soundEventKeyB);
+        return a != null && b != null && getAudioLocation(a).equals(getAudioLocation(b));
     }
 
     public List<SoundPackInfo> getLoadedSoundPacks() {
-        return Collections.unmodifiableList(loadedSoundPacks);
+        return Collections.unmodifiableList(state.loadedSoundPacks);
     }
 
+    /**
+     * 条件定義が読み込まれている全てのパックの定義 (有効/無効を問わない)。
+     */
+    public List<MusicDefinition> getLoadedMusicDefinitions() {
+        return Collections.unmodifiableList(state.allMusicDefinitions);
+    }
+
+    /**
+     * IDからパックを返します。読み込まれていなければ null です。
+     */
+    @Nullable
+    public SoundPackInfo getPackById(String packId) {
+        return state.packsById.get(packId);
+    }
+
+    /**
+     * アイコンのリソースの場所 ({@link SoundPackInfo#getIconLocation()}) からパックを返します。
+     */
+    @Nullable
+    public SoundPackInfo getPackByIconLocation(ResourceLocation iconLocation) {
+        return state.packsByIconLocation.get(iconLocation);
+    }
+
+    /**
+     * 有効なパックの定義を優先順に並べたもの。
+     * 毎回並べ替えないように、定義・有効なパック・パックの順序のいずれかが変わるまで結果を使い回します。
+     */
     public List<MusicDefinition> getActiveMusicDefinitionsSorted() {
+        return getActiveDefinitions().definitions();
+    }
+
+    /**
+     * 有効なパックの定義を、曲の選択で走査するための列ごとの配列にしたもの。
+     * {@link #getActiveMusicDefinitionsSorted()} と同じ順序で、同じ時に作り直されます。
+     */
+    public ActiveDefinitionTable getActiveDefinitionTable() {
+        return getActiveDefinitions().table();
+    }
+
+    private ActiveDefinitions getActiveDefinitions() {
+        int generation = definitionsGeneration.get();
+        ActiveDefinitions cached = this.activeDefinitionsCache;
+        if (cached != null && cached.generation() == generation) {
+            return cached;
+        }
+        List<MusicDefinition> sorted = Collections.unmodifiableList(sortActiveMusicDefinitions());
+        // 並べ替えている間に変更があった場合は世代が合わないので、次の呼び出しで作り直される
+        ActiveDefinitions rebuilt = new ActiveDefinitions(generation, sorted, ActiveDefinitionTable.build(sorted));
+        this.activeDefinitionsCache = rebuilt;
+        return rebuilt;
+    }
+
+    private List<MusicDefinition> sortActiveMusicDefinitions() {
+        Set<String> activeIds = this.activeSoundPackIdSet;
+        Map<String, Integer> ranks = this.packRanks;
         // パックの優先順位（packOrder のインデックス）を考慮してソート
         // packOrder の先頭（インデックス0）が最も優先度が高いとする
-        return allMusicDefinitions.stream()
-                .filter(def -> activeSoundPackIds.contains(def.getSoundPackId()))
+        return state.allMusicDefinitions.stream()
+                .filter(def -> activeIds.contains(def.getSoundPackId()))
+                .filter(this::isAudioPlayable)
                 .sorted((a, b) -> {
-                    int indexA = packOrder.indexOf(a.getSoundPackId());
-                    int indexB = packOrder.indexOf(b.getSoundPackId());
-                    
+                    int indexA = ranks.getOrDefault(a.getSoundPackId(), -1);
+                    int indexB = ranks.getOrDefault(b.getSoundPackId(), -1);
+
                     if (indexA != indexB) {
                         return Integer.compare(indexA, indexB); // インデックスが小さい（リストの上の）パックを優先
                     }
@@ -464,45 +908,155 @@ public class SoundPackManager {
                 .collect(Collectors.toList());
     }
 
-    public Map<ResourceLocation, Path> getOggResourceMap() {
-        return Collections.unmodifiableMap(oggResourceMap);
+    /**
+     * 全パック登録モードかどうか。有効な場合、sounds.json には読み込まれた全てのパックのイベントが含まれ、
+     * パックの有効化や並び替えは {@link #getActiveMusicDefinitionsSorted()} のフィルタだけで反映されます。
+     */
+    public boolean isRegisterAllPacksMode() {
+        return MusicPlayerClientConfig.getOrDefault(MusicPlayerClientConfig.INSTANCE.registerAllPacks);
+    }
+
+    /**
+     * 指定したパックのサウンドイベントが全て登録済みで、リソースのリロードなしで有効化できるかどうか。
+     */
+    public boolean canApplyWithoutReload(List<String> activeIds) {
+        return isRegisterAllPacksMode() && registeredSoundPackIds.containsAll(activeIds);
+    }
+
+    private List<MusicDefinition> getRegisteredMusicDefinitions() {
+        if (!isRegisterAllPacksMode()) {
+            return getActiveMusicDefinitionsSorted();
+        }
+        // 有効/無効に関係なく登録するので並び順は問わない
+        return new ArrayList<>(state.allMusicDefinitions);
+    }
+
+    /**
+     * パックの状態を置き換えている最中かどうか。この間は定義の一覧が不完全なので、曲の選び直しを控えてください。
+     */
+    public boolean isReloading() {
+        return this.reloading;
     }
 
-    public String generateSoundsJsonContent() {
-        List<MusicDefinition> definitionsToInclude = getActiveMusicDefinitionsSorted();
+    public Map<ResourceLocation, PackResourceHandle> getOggResourceMap() {
+        return Collections.unmodifiableMap(state.oggResourceMap);
+    }
+
+    /**
+     * 有効な定義（全パック登録モードでは読み込まれた全ての定義）から sounds.json を生成します。
+     * JSON ツリーや文字列を経由せず、コンパクトな JSON を UTF-8 のバイト列へ直接書き出します。
+     */
+    public byte[] generateSoundsJsonBytes() {
+        List<MusicDefinition> definitionsToInclude = getRegisteredMusicDefinitions();
+        this.registeredSoundPackIds = Set.of();
         if (definitionsToInclude.isEmpty()) {
             LOGGER.info("No active music definitions found, generating empty sounds.json content.");
-            return "{}";
+            return EMPTY_SOUNDS_JSON.clone();
         }
-        JsonObject rootJson = new JsonObject();
-        LOGGER.info("Generating sounds.json for {} active music definitions.", definitionsToInclude.size());
-        for (MusicDefinition def : definitionsToInclude) {
-            if (!def.isValid()) {
-                LOGGER.warn("Skipping invalid definition during sounds.json generation: {}", def);
-                continue;
+        LOGGER.info("Generating sounds.json for {} music definitions.", definitionsToInclude.size());
+        Set<ResourceLocation> preloadedAudio = choosePreloadedAudio(definitionsToInclude);
+        Set<String> includedPackIds = new HashSet<>();
+        ByteArrayOutputStream output = new ByteArrayOutputStream(definitionsToInclude.size() * 128);
+        int written = 0;
+        try (JsonWriter writer = new JsonWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8))) {
+            writer.beginObject();
+            Set<String> writtenKeys = new HashSet<>();
+            for (MusicDefinition def : definitionsToInclude) {
+                if (!def.isValid()) {
+                    LOGGER.warn("Skipping invalid definition during sounds.json generation: {}", def);
+                    continue;
+                }
+                if (!writtenKeys.add(def.getSoundEventKey())) {
+                    LOGGER.warn("Skipping duplicate sound event key during sounds.json generation: {}", def.getSoundEventKey());
+                    continue;
+                }
+                writer.name(def.getSoundEventKey()).beginObject();
+                writer.name("sounds").beginArray();
+                writer.beginObject();
+                ResourceLocation audioLocation = getAudioLocation(def);
+                writer.name("name").value(audioLocation.toString());
+                writer.name("stream").value(!preloadedAudio.contains(audioLocation));
+                writer.endObject();
+                writer.endArray();
+                writer.endObject();
+                includedPackIds.add(def.getSoundPackId());
+                written++;
             }
-            JsonObject soundEntry = new JsonObject();
-            JsonArray soundsArray = new JsonArray();
-            JsonObject soundObject = new JsonObject();
-            soundObject.addProperty("name", def.getOggResourceLocation().toString());
-            soundObject.addProperty("stream", true);
-            soundsArray.add(soundObject);
-            soundEntry.add("sounds", soundsArray);
-            rootJson.add(def.getSoundEventKey(), soundEntry);
+            writer.endObject();
+        } catch (IOException e) {
+            // ByteArrayOutputStream への書き込みなので通常は起こらない
+            LOGGER.error("Failed to write sounds.json content", e);
+            return EMPTY_SOUNDS_JSON.clone();
         }
-        if (rootJson.size() == 0) {
+        if (written == 0) {
             LOGGER.warn("Generated sounds.json is empty after filtering active/valid definitions.");
-            return "{}";
+            return EMPTY_SOUNDS_JSON.clone();
+        }
+        byte[] jsonBytes = output.toByteArray();
+        this.registeredSoundPackIds = Set.copyOf(includedPackIds);
+        LOGGER.info("Generated sounds.json content ({} entries, {} bytes).", written, jsonBytes.length);
+        return jsonBytes;
+    }
+
+    /**
+     * ストリーミングせずに登録する (サウンドエンジンがデコードした状態で保持する) 音声を選びます。
+     * ヘッダーから長さが分かっていて preload_max_seconds 以下の音声を、デコード後のサイズが小さい順に preload_budget_kb まで選びます。
+     * 同じ音声を使う定義はまとめて一つと数えます。
+     */
+    private Set<ResourceLocation> choosePreloadedAudio(List<MusicDefinition> definitions) {
+        int maxSeconds = MusicPlayerClientConfig.getOrDefault(MusicPlayerClientConfig.INSTANCE.preloadMaxSeconds);
+        long budgetBytes = MusicPlayerClientConfig.getOrDefault(MusicPlayerClientConfig.INSTANCE.preloadBudgetKb) * 1024L;
+        if (maxSeconds <= 0 || budgetBytes <= 0) {
+            return Set.of();
+        }
+        // 音声のリソース -> デコード後のサイズ (16bit PCM)
+        Map<ResourceLocation, Long> candidates = new HashMap<>();
+        for (MusicDefinition def : definitions) {
+            OggInfo info = state.audioInfoByEventKey.get(def.getSoundEventKey());
+            if (info == null || !info.isValid() || info.durationMillis() > maxSeconds * 1000L) {
+                continue;
+            }
+            candidates.putIfAbsent(getAudioLocation(def), info.totalSamples() * info.channels() * 2);
+        }
+        List<Map.Entry<ResourceLocation, Long>> bySize = new ArrayList<>(candidates.entrySet());
+        bySize.sort(Map.Entry.comparingByValue());
+        Set<ResourceLocation> preloaded = new HashSet<>();
+        long used = 0;
+        for (Map.Entry<ResourceLocation, Long> candidate : bySize) {
+            if (used + candidate.getValue() > budgetBytes) {
+                break;
+            }
+            used += candidate.getValue();
+            preloaded.add(candidate.getKey());
+        }
+        if (!candidates.isEmpty()) {
+            LOGGER.info("Registering {} of {} short sound files without streaming (~{} KiB decoded, budget {} KiB).",
+                    preloaded.size(), candidates.size(), used / 1024, budgetBytes / 1024);
         }
-        String jsonOutput = GSON.toJson(rootJson);
-        LOGGER.info("Generated sounds.json content (length {}): {}", jsonOutput.length(), jsonOutput.substring(0, Math.min(jsonOutput.length(), 500)) + (jsonOutput.length() > 500 ? "..." : ""));
-        return jsonOutput;
+        return preloaded;
+    }
+
+    /**
+     * デバッグ用に sounds.json を整形した文字列を返します。リソース提供の処理からは使用しません。
+     */
+    public static String prettyPrintSoundsJson(byte[] soundsJsonBytes) {
+        JsonElement root = JsonParser.parseString(new String(soundsJsonBytes, StandardCharsets.UTF_8));
+        return GSON.toJson(root);
     }
 
     public void setActiveSoundPackIds(List<String> ids) {
         this.activeSoundPackIds = new CopyOnWriteArrayList<>(ids); // UIからの変更を直接反映
+        rebuildActivePackIdSet();
+        PackState current = this.state;
+        boolean loadedAny = false;
+        for (String id : this.activeSoundPackIds) {
+            loadedAny |= loadPackDefinitionsIfNeeded(current, id);
+        }
+        if (loadedAny) {
+            analyzeLoadedAudio(current);
+        }
         LOGGER.info("Active sound packs updated by UI (based on internalId): {}", this.activeSoundPackIds);
-        saveActivePacksConfig(); // UIからの変更は即座に保存
+        saveActivePacksConfig(); // UIからの変更はすぐに書き込みを予約する
     }
 
     public List<String> getActiveSoundPackIds() {
@@ -511,30 +1065,100 @@ public class SoundPackManager {
 
     public void setPackOrder(List<String> order) {
         this.packOrder = new CopyOnWriteArrayList<>(order);
+        rebuildPackRanks();
         // loadedSoundPacks の順序もこれに合わせて更新する
-        List<SoundPackInfo> sortedPacks = new ArrayList<>();
-        for (String id : this.packOrder) {
-            loadedSoundPacks.stream()
-                    .filter(p -> p.getId().equals(id))
-                    .findFirst()
-                    .ifPresent(sortedPacks::add);
-        }
-        for (SoundPackInfo pack : loadedSoundPacks) {
-            if (!sortedPacks.contains(pack)) {
+        sortLoadedPacks(this.state, this.packOrder);
+
+        savePackOrderConfig();
+    }
+
+    /**
+     * loadedSoundPacks を指定したIDの順に並べ替えます。指定されていないパックは元の順序のまま末尾に並びます。
+     */
+    private static void sortLoadedPacks(PackState state, List<String> order) {
+        Map<String, SoundPackInfo> remaining = new LinkedHashMap<>();
+        for (SoundPackInfo pack : state.loadedSoundPacks) {
+            remaining.put(pack.getId(), pack);
+        }
+        List<SoundPackInfo> sortedPacks = new ArrayList<>(remaining.size());
+        for (String id : order) {
+            SoundPackInfo pack = remaining.remove(id);
+            if (pack != null) {
                 sortedPacks.add(pack);
             }
         }
-        this.loadedSoundPacks.clear();
-        this.loadedSoundPacks.addAll(sortedPacks);
-        
-        savePackOrderConfig();
+        sortedPacks.addAll(remaining.values());
+        state.loadedSoundPacks.clear();
+        state.loadedSoundPacks.addAll(sortedPacks);
+    }
+
+    private static void rebuildPackIndex(PackState state) {
+        state.packsById.clear();
+        state.packsByIconLocation.clear();
+        for (SoundPackInfo pack : state.loadedSoundPacks) {
+            state.packsById.put(pack.getId(), pack);
+            if (pack.getIconLocation() != null) {
+                state.packsByIconLocation.put(pack.getIconLocation(), pack);
+            }
+        }
+    }
+
+    private void rebuildActivePackIdSet() {
+        this.activeSoundPackIdSet = Set.copyOf(this.activeSoundPackIds);
+        invalidateActiveDefinitions();
+    }
+
+    private void rebuildPackRanks() {
+        Map<String, Integer> ranks = new HashMap<>();
+        for (int i = 0; i < this.packOrder.size(); i++) {
+            // indexOf と同じく、重複したIDは最初の位置を使う
+            ranks.putIfAbsent(this.packOrder.get(i), i);
+        }
+        this.packRanks = ranks;
+        invalidateActiveDefinitions();
+    }
+
+    private void invalidateActiveDefinitions() {
+        definitionsGeneration.incrementAndGet();
     }
 
     public List<String> getPackOrder() {
         return Collections.unmodifiableList(packOrder);
     }
 
+    /**
+     * 読み込んだパックと、その条件定義から作った索引。パックを読み込み直す時は新しいインスタンスを作って差し替えます。
+     * 有効化されたパックの条件定義を後から読み込む場合は、現在のインスタンスに追加します。
+     */
+    private static final class PackState {
+        private final List<SoundPackInfo> loadedSoundPacks = new CopyOnWriteArrayList<>();
+        private final List<MusicDefinition> allMusicDefinitions = new CopyOnWriteArrayList<>();
+        private final Map<ResourceLocation, PackResourceHandle> oggResourceMap = new ConcurrentHashMap<>();
+        private final Map<String, MusicDefinition> musicDefinitionByEventKey = new ConcurrentHashMap<>();
+        // loadedSoundPacks の索引 (loadedSoundPacks を置き換える度に作り直す)
+        private final Map<String, SoundPackInfo> packsById = new ConcurrentHashMap<>();
+        private final Map<ResourceLocation, SoundPackInfo> packsByIconLocation = new ConcurrentHashMap<>();
+        // 条件定義まで読み込み済みのパックID (非アクティブなパックはメタデータのみ読み込む)
+        private final Set<String> definitionsLoadedPackIds = ConcurrentHashMap.newKeySet();
+        // 条件定義の文字列とリストを定義間で共有するための表
+        private final DefinitionInterner definitionInterner = new DefinitionInterner();
+        // 同じ内容の OGG をまとめるためのハッシュ (dedupe_identical_audio が有効な場合のみ使う)
+        private final Map<String, String> audioHashByEventKey = new ConcurrentHashMap<>();
+        private final Map<String, ResourceLocation> audioLocationByHash = new ConcurrentHashMap<>();
+        // 他の定義と同じ内容の OGG を使う定義の SoundEventKey -> 実際に使うリソース
+        private final Map<String, ResourceLocation> sharedAudioByEventKey = new ConcurrentHashMap<>();
+        // SoundEventKey -> OGG のヘッダーの情報 (読み取れなかったファイルは含まない)
+        private final Map<String, OggInfo> audioInfoByEventKey = new ConcurrentHashMap<>();
+    }
+
+    private record ActiveDefinitions(int generation, List<MusicDefinition> definitions, ActiveDefinitionTable table) {
+    }
+
     public void onShutdown() {
-        closeAllZipFileSystems();
+        // 書き込み待ちの設定を保存してから終了する
+        trackPrefetcher.shutdown();
+        recentAudioCache.shutdown();
+        configWriter.shutdown();
+        getArchivePool().closeAll();
     }
 }
\ No newline at end of file
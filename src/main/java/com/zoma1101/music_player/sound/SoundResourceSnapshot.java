@@ -0,0 +1,110 @@
+package com.zoma1101.music_player.sound;
+
+import com.zoma1101.music_player.Music_Player;
+import net.minecraft.resources.ResourceLocation;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * リソースリロード時点の SoundPackManager の状態を固定したもの。
+ * ModSoundResourcePack はリロードの間、常にこのスナップショットだけを参照します。
+ */
+public class SoundResourceSnapshot {
+    public static final SoundResourceSnapshot EMPTY = new SoundResourceSnapshot("{}".getBytes(StandardCharsets.UTF_8), Map.of(), ResourcePathIndex.EMPTY, List.of());
+
+    // 生成済みの sounds.json (UTF-8)。全てのサプライヤーがこの配列を共有するので書き換えないこと
+    private final byte[] soundsJsonBytes;
+    private final Map<ResourceLocation, PackResourceHandle> oggResources;
+    // OGG とパックアイコンをまとめたパス順の索引 (listResources の前方一致用)
+    private final ResourcePathIndex pathIndex;
+    // 読み込まれていた条件定義 (読み込み順)。前回との差分を調べるためだけに使う
+    private final List<MusicDefinition> definitions;
+
+    private SoundResourceSnapshot(byte[] soundsJsonBytes, Map<ResourceLocation, PackResourceHandle> oggResources, ResourcePathIndex pathIndex,
+                                  List<MusicDefinition> definitions) {
+        this.soundsJsonBytes = soundsJsonBytes;
+        this.oggResources = oggResources;
+        this.pathIndex = pathIndex;
+        this.definitions = definitions;
+    }
+
+    public static SoundResourceSnapshot capture(SoundPackManager manager) {
+        Map<ResourceLocation, PackResourceHandle> oggResources = Map.copyOf(manager.getOggResourceMap());
+
+        Map<ResourceLocation, PackResourceHandle> listable = new HashMap<>(oggResources);
+        for (SoundPackInfo packInfo : manager.getLoadedSoundPacks()) {
+            if (packInfo.getIconLocation() != null && packInfo.getIconResource() != null) {
+                listable.put(packInfo.getIconLocation(), packInfo.getIconResource());
+            }
+        }
+        return new SoundResourceSnapshot(manager.generateSoundsJsonBytes(), oggResources,
+                ResourcePathIndex.build(Music_Player.MOD_ID, listable), List.copyOf(manager.getLoadedMusicDefinitions()));
+    }
+
+    /**
+     * sounds.json を読み出すストリーム。共有のバイト列をそのまま読むので再エンコードは発生しません。
+     */
+    public InputStream openSoundsJson() {
+        return new ByteArrayInputStream(soundsJsonBytes);
+    }
+
+    public int getSoundsJsonLength() {
+        return soundsJsonBytes.length;
+    }
+
+    public boolean hasEmptySoundsJson() {
+        return soundsJsonBytes.length == 2 && soundsJsonBytes[0] == '{' && soundsJsonBytes[1] == '}';
+    }
+
+    /**
+     * 登録されるサウンドイベント (sounds.json) と OGG の参照先が同じかどうか。
+     * OGG はパス・サイズ・更新日時で比べるので、同じサイズのファイルに置き換えられた場合も変更とみなします
+     * (ストリーミングしない音声はサウンドエンジンがデコード済みの内容を保持しているため)。
+     * 同じであれば変わったのは条件定義だけなので、サウンドシステムのリロードは不要です。
+     */
+    public boolean hasSameSounds(SoundResourceSnapshot other) {
+        return Arrays.equals(soundsJsonBytes, other.soundsJsonBytes) && oggResources.equals(other.oggResources);
+    }
+
+    /**
+     * 読み込まれていた条件定義が、順序も内容も同じかどうか。
+     */
+    public boolean hasSameDefinitions(SoundResourceSnapshot other) {
+        if (definitions.size() != other.definitions.size()) {
+            return false;
+        }
+        for (int i = 0; i < definitions.size(); i++) {
+            if (!definitions.get(i).hasSameContent(other.definitions.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * デバッグ用に整形した sounds.json を返します。
+     */
+    public String dumpSoundsJson() {
+        return SoundPackManager.prettyPrintSoundsJson(soundsJsonBytes);
+    }
+
+    @Nullable
+    public PackResourceHandle getOggResource(ResourceLocation location) {
+        return oggResources.get(location);
+    }
+
+    public Map<ResourceLocation, PackResourceHandle> getOggResources() {
+        return oggResources;
+    }
+
+    public ResourcePathIndex getPathIndex() {
+        return pathIndex;
+    }
+}
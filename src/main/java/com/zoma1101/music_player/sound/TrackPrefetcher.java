@@ -0,0 +1,360 @@
+package com.zoma1101.music_player.sound;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import com.mojang.logging.LogUtils;
+import com.zoma1101.music_player.Music_Player;
+import com.zoma1101.music_player.util.WriteBehindFileWriter;
+import net.minecraft.resources.ResourceLocation;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 曲の切り替わりの履歴から次に再生されそうな曲を予測し、その OGG の先頭 (最初の数ページ) を先読みしておくキャッシュ。
+ * 条件が変わって曲を切り替える時に、ストリームの最初の読み込みをメモリから返すことで、遅いディスク上の ZIP でも再生をすぐに始められます。
+ * <p>
+ * 遷移の回数は cache/music_player/track_transitions.json に保存し、次回の起動でも使います。
+ * 先読みしたバイト列の合計は {@code prefetch_cache_kb} までで、超えた分は LRU で捨てます。
+ */
+public class TrackPrefetcher {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    private static final Path HISTORY_FILE = Paths.get("cache", Music_Player.MOD_ID, "track_transitions.json");
+    private static final Type HISTORY_TYPE = new TypeToken<TreeMap<String, TreeMap<String, Integer>>>() {}.getType();
+    // 曲の始まりから読む長さ。識別・コメント・セットアップヘッダーと最初の音声のページを含む
+    private static final int PREFETCH_BYTES = 64 * 1024;
+    // 一度の切り替わりで先読みする曲の数
+    private static final int MAX_PREDICTIONS = 2;
+    // 遷移元ごとに覚える遷移先の数 (超えた場合は最も少ないものを忘れる)
+    private static final int MAX_SUCCESSORS = 16;
+    // 回数がこれを超えたら遷移元の全ての回数を半分にし、最近の傾向に追従させる
+    private static final int MAX_COUNT = 1000;
+    // 最初の曲 (直前に何も流れていない) の遷移元
+    private static final String START = "";
+
+    private final Gson gson;
+    private final WriteBehindFileWriter writer;
+    // 遷移元の SoundEventKey -> (遷移先の SoundEventKey -> 回数)
+    private final Map<String, Map<String, Integer>> transitions = new ConcurrentHashMap<>();
+    private volatile boolean loaded = false;
+
+    // 先読みしたリソース -> 先頭のバイト列 (accessOrder = true で LRU 順に並ぶ)。this で同期する
+    private final LinkedHashMap<ResourceLocation, Prefix> prefixes = new LinkedHashMap<>(16, 0.75f, true);
+    private long cachedBytes = 0;
+    // clear() の度に増やす。クリア前に始まった先読みの結果を捨てるために使う。this で同期する
+    private long generation = 0;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, Music_Player.MOD_ID + "-prefetch");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    TrackPrefetcher(Gson gson, WriteBehindFileWriter writer) {
+        this.gson = gson;
+        this.writer = writer;
+    }
+
+    /**
+     * 曲の切り替わりを記録し、{@code toKey} の次に再生されそうな曲を回数の多い順に返します。
+     */
+    List<String> recordTransition(@Nullable String fromKey, String toKey) {
+        ensureLoaded();
+        Map<String, Integer> successors = this.transitions.computeIfAbsent(fromKey != null ? fromKey : START, key -> new ConcurrentHashMap<>());
+        synchronized (successors) {
+            int count = successors.merge(toKey, 1, Integer::sum);
+            if (count > MAX_COUNT) {
+                successors.replaceAll((key, value) -> value / 2);
+                successors.values().removeIf(value -> value == 0);
+            }
+            if (successors.size() > MAX_SUCCESSORS) {
+                successors.entrySet().stream()
+                        .filter(entry -> !entry.getKey().equals(toKey))
+                        .min(Map.Entry.comparingByValue())
+                        .ifPresent(entry -> successors.remove(entry.getKey()));
+            }
+        }
+        this.writer.write(HISTORY_FILE, this.gson.toJson(snapshotTransitions(), HISTORY_TYPE));
+        return predict(toKey);
+    }
+
+    private List<String> predict(String fromKey) {
+        Map<String, Integer> successors = this.transitions.get(fromKey);
+        if (successors == null) {
+            return List.of();
+        }
+        List<Map.Entry<String, Integer>> sorted;
+        synchronized (successors) {
+            sorted = new ArrayList<>(successors.entrySet());
+        }
+        sorted.sort(Map.Entry.<String, Integer>comparingByValue().reversed());
+        List<String> predictions = new ArrayList<>(MAX_PREDICTIONS);
+        for (Map.Entry<String, Integer> entry : sorted) {
+            if (predictions.size() >= MAX_PREDICTIONS) {
+                break;
+            }
+            if (!entry.getKey().equals(fromKey)) {
+                predictions.add(entry.getKey());
+            }
+        }
+        return predictions;
+    }
+
+    /**
+     * リソースの先頭を、まだ先読みしていなければバックグラウンドで読み込みます。
+     */
+    void prefetch(ResourceLocation location, PackResourceHandle handle, PackArchivePool archivePool, long capacityBytes) {
+        if (capacityBytes <= 0) {
+            return;
+        }
+        long submittedGeneration;
+        synchronized (this) {
+            if (this.prefixes.containsKey(location)) {
+                return;
+            }
+            submittedGeneration = this.generation;
+        }
+        try {
+            this.executor.execute(() -> {
+                int length = (int) Math.min(handle.size(), Math.min(PREFETCH_BYTES, capacityBytes));
+                byte[] prefix;
+                try (InputStream in = handle.open(archivePool)) {
+                    prefix = in.readNBytes(length);
+                } catch (IOException e) {
+                    LOGGER.debug("Failed to prefetch {}: {}", location, e.getMessage());
+                    return;
+                }
+                if (store(location, new Prefix(handle, prefix), capacityBytes, submittedGeneration)) {
+                    LOGGER.debug("Prefetched the first {} bytes of {}", prefix.length, location);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // 終了処理中
+        }
+    }
+
+    /**
+     * @return 保存した場合は true。先読みを始めた後にパックが読み込み直されていた場合は、同じリソースでも内容が違う可能性があるので捨てます
+     */
+    private synchronized boolean store(ResourceLocation location, Prefix prefix, long capacityBytes, long submittedGeneration) {
+        if (submittedGeneration != this.generation) {
+            return false;
+        }
+        Prefix previous = this.prefixes.put(location, prefix);
+        this.cachedBytes += prefix.bytes().length - (previous != null ? previous.bytes().length : 0);
+        Iterator<Map.Entry<ResourceLocation, Prefix>> iterator = this.prefixes.entrySet().iterator();
+        while (this.cachedBytes > capacityBytes && iterator.hasNext()) {
+            Map.Entry<ResourceLocation, Prefix> eldest = iterator.next();
+            iterator.remove();
+            this.cachedBytes -= eldest.getValue().bytes().length;
+        }
+        return true;
+    }
+
+    /**
+     * リソースのストリームを開きます。先頭を先読みしてあればそれをメモリから返し、残りは読み進めた時点で開きます。
+     */
+    InputStream open(ResourceLocation location, PackResourceHandle handle, PackArchivePool archivePool) throws IOException {
+        Prefix cached;
+        synchronized (this) {
+            cached = this.prefixes.get(location);
+        }
+        // 先読みした時と違うファイル (パックの読み込み直し後など) を指している場合は使わない
+        byte[] prefix = cached != null && cached.handle().equals(handle) ? cached.bytes() : null;
+        if (prefix == null) {
+            this.misses.incrementAndGet();
+            return handle.open(archivePool);
+        }
+        this.hits.incrementAndGet();
+        LOGGER.debug("Serving {} from the prefetch cache ({} bytes, hit rate {}%)", location, prefix.length, getHitRatePercent());
+        return new PrefixedInputStream(prefix, handle, archivePool);
+    }
+
+    /**
+     * 先読みしたバイト列を全て捨てます (パックを読み込み直した時など)。遷移の履歴は残します。
+     */
+    synchronized void clear() {
+        this.prefixes.clear();
+        this.cachedBytes = 0;
+        this.generation++;
+    }
+
+    public synchronized long getCachedBytes() {
+        return this.cachedBytes;
+    }
+
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+    public int getHitRatePercent() {
+        long hits = this.hits.get();
+        long total = hits + this.misses.get();
+        return total == 0 ? 0 : (int) (hits * 100 / total);
+    }
+
+    void shutdown() {
+        this.executor.shutdownNow();
+        LOGGER.info("Track prefetch: {} hits, {} misses ({}% hit rate)", getHits(), getMisses(), getHitRatePercent());
+    }
+
+    private Map<String, Map<String, Integer>> snapshotTransitions() {
+        Map<String, Map<String, Integer>> snapshot = new TreeMap<>();
+        this.transitions.forEach((from, successors) -> {
+            synchronized (successors) {
+                snapshot.put(from, new TreeMap<>(successors));
+            }
+        });
+        return snapshot;
+    }
+
+    private void ensureLoaded() {
+        if (this.loaded) {
+            return;
+        }
+        synchronized (this.transitions) {
+            if (this.loaded) {
+                return;
+            }
+            if (Files.isRegularFile(HISTORY_FILE)) {
+                try {
+                    String content = Files.readString(HISTORY_FILE, StandardCharsets.UTF_8);
+                    this.writer.markPersisted(HISTORY_FILE, content);
+                    Map<String, Map<String, Integer>> parsed = this.gson.fromJson(content, HISTORY_TYPE);
+                    if (parsed != null) {
+                        parsed.forEach((from, successors) -> {
+                            if (from != null && successors != null) {
+                                Map<String, Integer> copy = new ConcurrentHashMap<>();
+                                successors.forEach((to, count) -> {
+                                    if (to != null && count != null && count > 0) {
+                                        copy.put(to, count);
+                                    }
+                                });
+                                this.transitions.put(from, copy);
+                            }
+                        });
+                    }
+                    LOGGER.debug("Loaded track transitions for {} tracks from {}", this.transitions.size(), HISTORY_FILE);
+                } catch (IOException | JsonParseException e) {
+                    LOGGER.warn("Ignoring unreadable track transition history {}: {}", HISTORY_FILE, e.getMessage());
+                }
+            }
+            this.loaded = true;
+        }
+    }
+
+    /**
+     * 先読みした先頭のバイト列と、読み込んだ時のリソース。
+     */
+    private record Prefix(PackResourceHandle handle, byte[] bytes) {
+    }
+
+    /**
+     * 先読みした先頭のバイト列を返した後、残りをパックから読むストリーム。
+     * 残りのストリームは先頭を読み終えた時点で開き、先頭の長さだけ読み飛ばします。
+     */
+    private static final class PrefixedInputStream extends InputStream {
+        private final ByteArrayInputStream prefix;
+        private final int prefixLength;
+        private final PackResourceHandle handle;
+        private final PackArchivePool archivePool;
+        @Nullable
+        private InputStream rest;
+        private boolean closed = false;
+
+        private PrefixedInputStream(byte[] prefix, PackResourceHandle handle, PackArchivePool archivePool) {
+            this.prefix = new ByteArrayInputStream(prefix);
+            this.prefixLength = prefix.length;
+            this.handle = handle;
+            this.archivePool = archivePool;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            int n = read(single, 0, 1);
+            return n <= 0 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (this.closed) {
+                throw new IOException("Stream closed");
+            }
+            if (len == 0) {
+                return 0;
+            }
+            int n = this.prefix.read(b, off, len);
+            if (n > 0) {
+                return n;
+            }
+            InputStream restStream = rest();
+            return restStream != null ? restStream.read(b, off, len) : -1;
+        }
+
+        @Nullable
+        private InputStream rest() throws IOException {
+            if (this.rest == null && this.prefixLength < this.handle.size()) {
+                InputStream in = this.handle.open(this.archivePool);
+                try {
+                    long toSkip = this.prefixLength;
+                    while (toSkip > 0) {
+                        long skipped = in.skip(toSkip);
+                        if (skipped <= 0) {
+                            throw new IOException("Sound file is shorter than its prefetched prefix: " + this.handle.entry());
+                        }
+                        toSkip -= skipped;
+                    }
+                } catch (IOException | RuntimeException e) {
+                    in.close();
+                    throw e;
+                }
+                this.rest = in;
+            }
+            return this.rest;
+        }
+
+        @Override
+        public int available() throws IOException {
+            int buffered = this.prefix.available();
+            return buffered > 0 || this.rest == null ? buffered : this.rest.available();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            if (this.rest != null) {
+                this.rest.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.zoma1101.music_player.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link FileChannel} から大きなダイレクトバッファ単位で先読みする入力ストリーム。
+ * サウンドエンジンは小さなチャンクで読み出すため、通常の {@code Files.newInputStream} ではその度にシステムコールが発生します。
+ * <p>
+ * 先読みサイズは Ogg ページの最大長 (65,307 バイト) の2倍以上にしてあり、先読みの度にバッファが満杯になるかファイルの終わりまで読むので、
+ * ファイルの終わり以外では先読みしたブロックに必ず完全なページが1つ以上含まれます。
+ * バッファはストリーム間で使い回し、閉じた時にプールへ返却します。
+ */
+public class FileChannelInputStream extends InputStream {
+    public static final int READ_AHEAD_BYTES = 128 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 8;
+    private static final ConcurrentLinkedQueue<ByteBuffer> BUFFER_POOL = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger POOLED_COUNT = new AtomicInteger();
+
+    private final FileChannel channel;
+    private ByteBuffer buffer;
+    private boolean endOfFile = false;
+
+    private FileChannelInputStream(FileChannel channel) {
+        this.channel = channel;
+        this.buffer = acquireBuffer();
+        this.buffer.limit(0); // 読み出しモードで空の状態から始める
+    }
+
+    public static FileChannelInputStream open(Path path) throws IOException {
+        return new FileChannelInputStream(FileChannel.open(path, StandardOpenOption.READ));
+    }
+
+    private static ByteBuffer acquireBuffer() {
+        ByteBuffer pooled = BUFFER_POOL.poll();
+        if (pooled != null) {
+            POOLED_COUNT.decrementAndGet();
+            pooled.clear();
+            return pooled;
+        }
+        return ByteBuffer.allocateDirect(READ_AHEAD_BYTES);
+    }
+
+    private static void releaseBuffer(ByteBuffer buffer) {
+        if (POOLED_COUNT.incrementAndGet() <= MAX_POOLED_BUFFERS) {
+            BUFFER_POOL.offer(buffer);
+        } else {
+            POOLED_COUNT.decrementAndGet(); // 上限を超えた分は GC に任せる
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (this.buffer == null) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    /**
+     * バッファが空の場合に、次の先読みブロックを取得します。
+     * ネットワーク上のホームディレクトリなどでは1回の読み込みが途中までしか返さないことがあるので、
+     * バッファが満杯になるかファイルの終わりに達するまで読み込みを繰り返します。
+     */
+    private boolean fill() throws IOException {
+        if (this.endOfFile) {
+            return false;
+        }
+        this.buffer.clear();
+        while (this.buffer.hasRemaining()) {
+            if (this.channel.read(this.buffer) < 0) {
+                this.endOfFile = true;
+                break;
+            }
+        }
+        this.buffer.flip();
+        return this.buffer.hasRemaining();
+    }
+
+    @Override
+    public int read() throws IOException {
+        ensureOpen();
+        if (!this.buffer.hasRemaining() && !fill()) {
+            return -1;
+        }
+        return this.buffer.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (len == 0) {
+            return 0;
+        }
+        if (!this.buffer.hasRemaining() && !fill()) {
+            return -1;
+        }
+        int n = Math.min(len, this.buffer.remaining());
+        this.buffer.get(b, off, n);
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        ensureOpen();
+        if (n <= 0) {
+            return 0;
+        }
+        int buffered = this.buffer.remaining();
+        if (n <= buffered) {
+            this.buffer.position(this.buffer.position() + (int) n);
+            return n;
+        }
+        // バッファ外はシークするだけで読み飛ばしに I/O を使わない
+        this.buffer.limit(0);
+        long position = this.channel.position();
+        long target = Math.min(this.channel.size(), position + (n - buffered));
+        this.channel.position(target);
+        return buffered + (target - position);
+    }
+
+    @Override
+    public int available() throws IOException {
+        ensureOpen();
+        long remainingInFile = Math.max(0, this.channel.size() - this.channel.position());
+        return (int) Math.min(Integer.MAX_VALUE, this.buffer.remaining() + remainingInFile);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.buffer == null) {
+            return;
+        }
+        ByteBuffer released = this.buffer;
+        this.buffer = null;
+        try {
+            this.channel.close();
+        } finally {
+            releaseBuffer(released);
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.zoma1101.music_player.util;
+
+import com.mojang.logging.LogUtils;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 読み取り専用でメモリマップしたファイル。{@link #close()} の時点で読み出し中のストリームが無ければすぐにアンマップし、
+ * あれば最後のストリームが閉じられた時点でアンマップします。
+ * <p>
+ * {@link MappedByteBuffer} は通常 GC されるまでアンマップされず、その間はマッピングが残り続け、Windows ではファイルもロックされたままになります。
+ * そのため {@code Unsafe.invokeCleaner} で明示的に解放します。使えない環境では従来通り GC に任せます。
+ * 解放後にマップ領域へアクセスするとプロセスごと落ちるので、マップ領域を読むストリームは必ず {@link #openStream(StreamOpener)} を通して作ってください。
+ */
+public final class MappedFile {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    @Nullable
+    private static final MethodHandle INVOKE_CLEANER = findInvokeCleaner();
+
+    private final Path path;
+    private final MappedByteBuffer mapped;
+    private final ByteBuffer buffer;
+    // 以下は this で同期する
+    private int openStreams = 0;
+    private boolean closed = false;
+    private boolean unmapped = false;
+
+    private MappedFile(Path path, MappedByteBuffer mapped) {
+        this.path = path;
+        this.mapped = mapped;
+        this.buffer = mapped.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * ファイル全体をマップします。チャネルはマップした直後に閉じるため、ファイルディスクリプタは保持しません。
+     */
+    public static MappedFile map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            if (fileSize > Integer.MAX_VALUE) {
+                throw new IOException("File is too large to be memory-mapped (" + fileSize + " bytes): " + path);
+            }
+            return new MappedFile(path, channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize));
+        }
+    }
+
+    /**
+     * リトルエンディアンのマップ領域。ストリームを作る以外の用途では、閉じた後に読まないでください。
+     */
+    public ByteBuffer buffer() {
+        return this.buffer;
+    }
+
+    public synchronized boolean isOpen() {
+        return !this.closed;
+    }
+
+    /**
+     * マップ領域を読むストリームを作り、閉じられるまでマッピングを保持するストリームで包んで返します。
+     * {@code opener} はマッピングを保持した状態で呼び出すので、その中でマップ領域を読んでも解放と競合しません。
+     * 返したストリームは閉じた後は読み出せません (解放されたマップ領域に触れないようにするため)。
+     */
+    public InputStream openStream(StreamOpener opener) throws IOException {
+        synchronized (this) {
+            if (this.closed) {
+                throw new IOException("Mapped file is closed: " + this.path);
+            }
+            this.openStreams++;
+        }
+        try {
+            return new TrackedInputStream(opener.open(this.buffer));
+        } catch (IOException | RuntimeException e) {
+            release();
+            throw e;
+        }
+    }
+
+    @FunctionalInterface
+    public interface StreamOpener {
+        InputStream open(ByteBuffer buffer) throws IOException;
+    }
+
+    /**
+     * 読み出し中のストリームが無ければすぐにアンマップし、あれば最後のストリームが閉じられた時点でアンマップします。
+     */
+    public void close() {
+        synchronized (this) {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            if (this.openStreams > 0) {
+                LOGGER.trace("Deferring unmap of {} until {} streams are closed", this.path, this.openStreams);
+                return;
+            }
+        }
+        unmap();
+    }
+
+    private void release() {
+        synchronized (this) {
+            this.openStreams--;
+            if (!this.closed || this.openStreams > 0) {
+                return;
+            }
+        }
+        unmap();
+    }
+
+    private void unmap() {
+        synchronized (this) {
+            if (this.unmapped) {
+                return;
+            }
+            this.unmapped = true;
+        }
+        if (INVOKE_CLEANER == null) {
+            return;
+        }
+        try {
+            INVOKE_CLEANER.invokeExact((ByteBuffer) this.mapped);
+            LOGGER.trace("Unmapped {}", this.path);
+        } catch (Throwable e) {
+            LOGGER.warn("Failed to unmap {}; it will be released by the garbage collector: {}", this.path, e.toString());
+        }
+    }
+
+    @Nullable
+    private static MethodHandle findInvokeCleaner() {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            Object unsafe = field.get(null);
+            return MethodHandles.lookup()
+                    .findVirtual(unsafeClass, "invokeCleaner", MethodType.methodType(void.class, ByteBuffer.class))
+                    .bindTo(unsafe);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOGGER.warn("Memory-mapped sound packs cannot be unmapped explicitly and will be released by the garbage collector: {}", e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * 閉じられるまでマッピングを保持し、閉じた後は元のストリームに触れないストリーム。
+     */
+    private final class TrackedInputStream extends FilterInputStream {
+        private boolean streamClosed = false;
+
+        private TrackedInputStream(InputStream in) {
+            super(in);
+        }
+
+        private void ensureOpen() throws IOException {
+            if (this.streamClosed) {
+                throw new IOException("Stream closed");
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            ensureOpen();
+            return super.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            ensureOpen();
+            return super.read(b, off, len);
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            ensureOpen();
+            return super.skip(n);
+        }
+
+        @Override
+        public int available() throws IOException {
+            ensureOpen();
+            return super.available();
+        }
+
+        @Override
+        public synchronized void reset() throws IOException {
+            ensureOpen();
+            super.reset();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (this.streamClosed) {
+                return;
+            }
+            this.streamClosed = true;
+            try {
+                super.close();
+            } finally {
+                release();
+            }
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.zoma1101.music_player.util;
 
 import com.mojang.logging.LogUtils;
+import com.zoma1101.music_player.sound.ActiveDefinitionTable;
 import com.zoma1101.music_player.sound.MusicDefinition;
 import net.minecraft.ResourceLocationException;
 import net.minecraft.client.Minecraft;
@@ -52,6 +53,27 @@ public class MusicConditionEvaluator {
         return context;
     }
 
+    /**
+     * 有効な定義の表から、現在の状況に一致する最も優先度の高い定義を返します。
+     * 高さ・昼夜・戦闘・村・天候・ディメンションは表の配列で判定し、残りの条件を持つ定義だけを
+     * {@link #doesDefinitionMatch} で判定します。
+     */
+    @Nullable
+    public static MusicDefinition findFirstMatch(ActiveDefinitionTable table, @Nullable CurrentContext context) {
+        if (context == null) {
+            LOGGER.trace("Context is null, cannot match definition.");
+            return null;
+        }
+        int state = 0;
+        if (context.isNight) state |= ActiveDefinitionTable.STATE_NIGHT;
+        if (context.isInCombat) state |= ActiveDefinitionTable.STATE_COMBAT;
+        if (context.isInVillage) state |= ActiveDefinitionTable.STATE_VILLAGE;
+        int weather = ActiveDefinitionTable.currentWeather(context.isRaining, context.isThundering);
+        long dimension = table.dimensionBit(context.dimensionId != null ? context.dimensionId.toString() : null);
+        return table.findFirstMatch(state, weather, context.altitude, dimension,
+                definition -> doesDefinitionMatch(definition, context));
+    }
+
     public static boolean doesDefinitionMatch(MusicDefinition definition, CurrentContext context) {
         if (context == null) {
             LOGGER.trace("Context is null, cannot match definition.");
@@ -99,11 +121,11 @@ public class MusicConditionEvaluator {
             }
 
             // Altitude Check
-            if (definition.getMinY() != null && context.altitude < definition.getMinY()) {
+            if (definition.hasMinY() && context.altitude < definition.getMinY()) {
                 LOGGER.trace("Failed minY check: required={}, current={}", definition.getMinY(), context.altitude);
                 return false;
             }
-            if (definition.getMaxY() != null && context.altitude > definition.getMaxY()) {
+            if (definition.hasMaxY() && context.altitude > definition.getMaxY()) {
                 LOGGER.trace("Failed maxY check: required={}, current={}", definition.getMaxY(), context.altitude);
                 return false;
             }
@@ -199,16 +221,16 @@ public class MusicConditionEvaluator {
 
             // Entity Conditions Check
             List<String> entityConditions = definition.getEntityConditions();
-            Double radius = definition.getRadius();
-            Integer minCount = definition.getMinCount();
-            Integer maxCount = definition.getMaxCount();
+            double radius = definition.getRadius();
+            Integer minCount = definition.hasMinCount() ? definition.getMinCount() : null;
+            Integer maxCount = definition.hasMaxCount() ? definition.getMaxCount() : null;
 
             if (entityConditions != null && !entityConditions.isEmpty()) {
                 Minecraft mc = Minecraft.getInstance();
                 LocalPlayer player = mc.player;
                 Level level = mc.level;
 
-                if (player == null || level == null || radius == null || radius <= 0) {
+                if (player == null || level == null || !definition.hasRadius() || radius <= 0) {
                     LOGGER.warn("Skipping entity condition check due to invalid state (player/level null or radius <= 0) for {}", logDefId);
                     return false;
                 }
@@ -341,7 +363,7 @@ public class MusicConditionEvaluator {
                             maxCount != null ? maxCount : "N/A",
                             count);
                 }
-            } else if (radius != null || minCount != null || maxCount != null) {
+            } else if (definition.hasRadius() || minCount != null || maxCount != null) {
                 // entityConditions がないのに radius や count が指定されているのは不正
                 LOGGER.warn("Invalid entity condition configuration for {}: entity_conditions list is empty/null but radius/min/max is specified.", logDefId);
                 return false;
@@ -0,0 +1,128 @@
+package com.zoma1101.music_player.util;
+
+import com.mojang.logging.LogUtils;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 小さな設定ファイルを書き込みスレッドでまとめて保存するライター。
+ * 短時間に続いた変更は最後の内容だけを書き込み、前回保存した内容と同じであれば書き込みません。
+ * 書き込みは同じディレクトリの一時ファイルに書いてから置き換えるので、途中でクラッシュしてもファイルが壊れません。
+ */
+public class WriteBehindFileWriter {
+    private static final Logger LOGGER = LogUtils.getLogger();
+
+    private final long debounceMillis;
+    private final ScheduledExecutorService executor;
+    // 書き込み待ちの内容 (ファイルごとに最新のものだけ)
+    private final Map<Path, String> pending = new LinkedHashMap<>();
+    // ディスク上にあると分かっている内容 (読み込み時、または書き込み後)
+    private final Map<Path, String> persisted = new ConcurrentHashMap<>();
+    private ScheduledFuture<?> scheduledFlush = null;
+    // 書き込みスレッドと呼び出し元のスレッド (shutdown など) が同時に同じファイルを書き込まないようにする
+    private final Object writeLock = new Object();
+
+    public WriteBehindFileWriter(String threadName, long debounceMillis) {
+        this.debounceMillis = debounceMillis;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, threadName);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * ファイルの内容がディスク上の内容と同じであることを記録します (設定の読み込み時など)。
+     */
+    public void markPersisted(Path file, String content) {
+        this.persisted.put(file.toAbsolutePath().normalize(), content);
+    }
+
+    /**
+     * 書き込みを予約します。一定時間内に同じファイルへの変更が続いた場合は最後の内容だけを書き込みます。
+     */
+    public synchronized void write(Path file, String content) {
+        this.pending.put(file.toAbsolutePath().normalize(), content);
+        if (this.scheduledFlush == null && !this.executor.isShutdown()) {
+            this.scheduledFlush = this.executor.schedule(this::flush, this.debounceMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 書き込み待ちの内容を全て、呼び出し元のスレッドで書き込みます。
+     * 書き込みスレッドが書き込み中の場合は、それが終わってから書き込みます。
+     */
+    public void flush() {
+        synchronized (this.writeLock) {
+            // 取り出しも書き込みのロックの中で行い、古い内容が新しい内容を後から上書きしないようにする
+            Map<Path, String> toWrite;
+            synchronized (this) {
+                toWrite = new LinkedHashMap<>(this.pending);
+                this.pending.clear();
+                if (this.scheduledFlush != null) {
+                    this.scheduledFlush.cancel(false);
+                    this.scheduledFlush = null;
+                }
+            }
+            for (Map.Entry<Path, String> entry : toWrite.entrySet()) {
+                writeIfChanged(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * 書き込みスレッドを止め、実行中の書き込みが終わるのを待ってから、書き込み待ちの内容を書き込みます。
+     */
+    public void shutdown() {
+        synchronized (this) {
+            this.executor.shutdown();
+        }
+        flush();
+        try {
+            if (!this.executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                LOGGER.warn("Write-behind writer did not stop within 5 seconds");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeIfChanged(Path file, String content) {
+        if (Objects.equals(this.persisted.get(file), content)) {
+            LOGGER.debug("Skipped writing unchanged file {}", file);
+            return;
+        }
+        try {
+            Files.createDirectories(file.getParent());
+            Path tempFile = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+            try {
+                Files.writeString(tempFile, content, StandardCharsets.UTF_8);
+                try {
+                    Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+            this.persisted.put(file, content);
+            LOGGER.debug("Wrote {}", file);
+        } catch (IOException e) {
+            LOGGER.error("Failed to write file: {}", file, e);
+        }
+    }
+}